@@ -0,0 +1,217 @@
+
+package com.dogcows;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.topcoder.client.contestant.ProblemComponentModel;
+import com.topcoder.client.contestant.ProblemModel;
+import com.topcoder.client.contestant.RoundModel;
+import com.topcoder.shared.language.CPPLanguage;
+import com.topcoder.shared.language.Language;
+import com.topcoder.shared.problem.DataType;
+import com.topcoder.shared.problem.Renderer;
+import com.topcoder.shared.problem.TestCase;
+
+/**
+ * @author Charles McGarvey
+ * The TopCoder Arena editor plug-in providing support for Vim.
+ * 
+ * Distributable under the terms and conditions of the 2-clause BSD license;
+ * see the file COPYING for a complete text of the license.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EditorBenchmark
+{
+    /**
+     * The storage directory the benchmarks write problems to.
+     */
+    private File storage;
+
+    /**
+     * The stub objects standing in for what the Arena gives us.
+     */
+    private ProblemComponentModel component;
+    private Language language;
+    private Renderer renderer;
+
+    /**
+     * A log which throws away everything.
+     */
+    private final Log log = new Log()
+    {
+        public void info(String what)
+        {
+        }
+
+        public void error(String what)
+        {
+        }
+    };
+
+
+    /**
+     * Create a stub implementation of an interface.
+     * Methods return the value mapped to their name, or null.
+     * @param type The interface.
+     * @param values Map method names to return values.
+     * @return The stub.
+     */
+    private static <T> T stub(Class<T> type, final Map<String,Object> values)
+    {
+        InvocationHandler handler = new InvocationHandler()
+        {
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                return values.get(method.getName());
+            }
+        };
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, handler));
+    }
+
+    /**
+     * Create a data type with a fixed descriptor.
+     * @param descriptor The descriptor.
+     * @return The data type.
+     */
+    private static DataType dataType(final String descriptor)
+    {
+        return new DataType()
+        {
+            public String getDescriptor(Language language)
+            {
+                return descriptor;
+            }
+        };
+    }
+
+    /**
+     * Create a test case.
+     * @param output The expected output.
+     * @param input The inputs.
+     * @return The test case.
+     */
+    private static TestCase testCase(final String output, final String... input)
+    {
+        return new TestCase()
+        {
+            public String getOutput()
+            {
+                return output;
+            }
+
+            public String[] getInput()
+            {
+                return input;
+            }
+        };
+    }
+
+    /**
+     * Delete a directory and everything in it.
+     * @param file The directory.
+     */
+    private static void delete(File file)
+    {
+        File[] files = file.listFiles();
+        if (files != null) for (File child : files) delete(child);
+        file.delete();
+    }
+
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception
+    {
+        // The storage directory is under the home directory, so point that
+        // somewhere disposable before VimCoder is loaded.
+        storage = File.createTempFile("vimcoder", "");
+        storage.delete();
+        System.setProperty("user.home", storage.getPath());
+
+        Map<String,Object> round = new HashMap<String,Object>();
+        round.put("getContestName", "SRM 144 DIV 1");
+
+        Map<String,Object> problem = new HashMap<String,Object>();
+        problem.put("getProblemID", Long.valueOf(1704));
+        problem.put("getRound", stub(RoundModel.class, round));
+
+        StringBuilder grid = new StringBuilder("{");
+        for (int i = 0; i < 50; ++i)
+        {
+            if (0 < i) grid.append(", ");
+            grid.append("\"01234567890123456789012345678901234567890123456789\"");
+        }
+        grid.append("}");
+
+        Map<String,Object> values = new HashMap<String,Object>();
+        values.put("getProblem",     stub(ProblemModel.class, problem));
+        values.put("getClassName",   "BinaryCode");
+        values.put("getMethodName",  "decode");
+        values.put("getPoints",      Double.valueOf(300.0));
+        values.put("getReturnType",  dataType("vector <string>"));
+        values.put("getParamTypes",  new DataType[] {dataType("vector <string>"), dataType("int")});
+        values.put("getParamNames",  new String[] {"grid", "rows"});
+        values.put("hasTestCases",   Boolean.TRUE);
+        values.put("getTestCases",   new TestCase[] {testCase(grid.toString(), grid.toString(), "50"),
+                                                     testCase("{}", "{}", "0")});
+        component = stub(ProblemComponentModel.class, values);
+
+        Map<String,Object> html = new HashMap<String,Object>();
+        html.put("toHTML", "<html><body><p>Decode the message.</p></body></html>");
+        renderer = stub(Renderer.class, html);
+
+        language = CPPLanguage.CPP_LANGUAGE;
+
+        // Open the problem once so the existing problem benchmark has
+        // something to find.
+        openProblem();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        delete(storage);
+    }
+
+
+    @Benchmark
+    public File openProblem() throws Exception
+    {
+        return new Editor(component, language, renderer, log).getWorkspaceReady().get();
+    }
+
+    @Benchmark
+    public File openNewProblem(EmptyStorage empty) throws Exception
+    {
+        return new Editor(component, language, renderer, log).getWorkspaceReady().get();
+    }
+
+
+    /**
+     * State which removes every problem before each benchmark call, so
+     * each problem opened is new.
+     */
+    @State(Scope.Thread)
+    public static class EmptyStorage
+    {
+        @Setup(Level.Invocation)
+        public void clear()
+        {
+            delete(VimCoder.getStorageDirectory());
+        }
+    }
+}
+
+// vim:et:ts=8:sts=4:sw=4
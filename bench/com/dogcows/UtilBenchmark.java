@@ -0,0 +1,155 @@
+
+package com.dogcows;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * @author Charles McGarvey
+ * The TopCoder Arena editor plug-in providing support for Vim.
+ * 
+ * Distributable under the terms and conditions of the 2-clause BSD license;
+ * see the file COPYING for a complete text of the license.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UtilBenchmark
+{
+    /**
+     * The driver template, which is the largest of the default templates.
+     */
+    private String template;
+
+    /**
+     * The terms for expanding the driver template.
+     */
+    private Map<String,String> terms;
+
+    /**
+     * Strings for joining and combining.
+     */
+    private String[] types, names;
+
+    /**
+     * A string with characters that need escaping.
+     */
+    private String unescaped;
+
+    /**
+     * A solution-sized file to read, which is old enough for its contents
+     * to be cached.
+     */
+    private File file;
+
+    /**
+     * Copies of the file to read in turn.  There are more of them than
+     * readFile caches, so none of them is in the cache when it is read.
+     */
+    private File[] files;
+
+    /**
+     * The index of the copy to read next.
+     */
+    private int nextFile;
+
+
+    @Setup
+    public void setUp() throws IOException
+    {
+        template = Util.readResource("C++Driver");
+
+        terms = new HashMap<String,String>();
+        terms.put("RETURNTYPE",           "vector <string>");
+        terms.put("CLASSNAME",            "BinaryCode");
+        terms.put("METHODNAME",           "decode");
+        terms.put("METHODPARAMS",         "vector <string> grid, int rows, int columns");
+        terms.put("METHODPARAMNAMES",     "grid, rows, columns");
+        terms.put("METHODPARAMSTREAMIN",  "grid >> rows >> columns");
+        terms.put("METHODPARAMSTREAMOUT", "grid << \", \" << rows << \", \" << columns");
+        terms.put("METHODPARAMDECLARES",  "vector <string>\tgrid;\nint\trows;\nint\tcolumns;\n");
+        terms.put("VIMCODER",             VimCoder.version);
+
+        types = new String[] {"vector <string>", "int", "int", "long long", "double"};
+        names = new String[] {"grid", "rows", "columns", "seed", "ratio"};
+
+        unescaped = "printf(\"%s\\n\", \"C:\\\\Program Files\\\\Vim\");";
+
+        String source = Util.readResource("C++Template") + template;
+        file = File.createTempFile("vimcoder", ".cc");
+        file.deleteOnExit();
+        Util.writeFile(file, source);
+        file.setLastModified(System.currentTimeMillis() - 60000);
+
+        files = new File[32];
+        for (int i = 0; i < files.length; ++i)
+        {
+            files[i] = File.createTempFile("vimcoder", ".cc");
+            files[i].deleteOnExit();
+            Util.writeFile(files[i], source);
+            files[i].setLastModified(System.currentTimeMillis() - 60000);
+        }
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        file.delete();
+        for (File copy : files) copy.delete();
+    }
+
+
+    @Benchmark
+    public String expandTemplate()
+    {
+        return Util.expandTemplate(template, terms);
+    }
+
+    @Benchmark
+    public String expandCompiledTemplate()
+    {
+        return TemplateCache.get("C++Driver").expand(terms);
+    }
+
+    @Benchmark
+    public String escape()
+    {
+        return Util.escape(unescaped);
+    }
+
+    @Benchmark
+    public String readFile() throws IOException
+    {
+        File copy = files[nextFile];
+        nextFile = (nextFile + 1) % files.length;
+        return Util.readFile(copy);
+    }
+
+    @Benchmark
+    public String readCachedFile() throws IOException
+    {
+        return Util.readFile(file);
+    }
+
+    @Benchmark
+    public String readResource() throws IOException
+    {
+        return Util.readResource("C++Driver");
+    }
+
+    @Benchmark
+    public String joinAndCombine()
+    {
+        return Util.join(Util.combine(types, names, " "), ", ");
+    }
+}
+
+// vim:et:ts=8:sts=4:sw=4
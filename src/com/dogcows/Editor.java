@@ -1,10 +1,9 @@
 
 package com.dogcows;
 
-import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
+import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import com.topcoder.client.contestant.ProblemComponentModel;
 import com.topcoder.shared.language.Language;
@@ -42,15 +41,104 @@ public class Editor
     private String points;
 
     /**
-     * The path of the current source file.
+     * The name of the language.
      */
-    private File sourceFile;
+    private String language;
 
     /**
-     * The path of the problem directory.
+     * The future for the path of the problem directory.
      */
-    private File directory;
+    private final Future<File> directoryReady;
 
+    /**
+     * The future for the path of the current source file, which completes
+     * once the file exists.
+     */
+    private final Future<File> sourceReady;
+
+    /**
+     * The future for the path of the problem directory, which completes
+     * once all of the files in it have been written.
+     */
+    private final Future<File> workspaceReady;
+
+    /**
+     * The futures for the paths of the files written in the problem
+     * directory, which complete once the files exist.
+     */
+    private final List<Future<File>> files = new ArrayList<Future<File>>();
+
+    /**
+     * Whether or not any of the files had to be looked for because the
+     * problem index didn't know them as they are.
+     */
+    private volatile boolean indexStale = false;
+
+    /**
+     * The tracker which loads the source file as it is written (or null if
+     * the file can't be watched).
+     */
+    private volatile SourceTracker sourceTracker;
+
+    /**
+     * The log to report errors to.
+     */
+    private final Log log;
+
+    /**
+     * The executor which sends commands to the Vim server in order.
+     */
+    private final ExecutorService vimExecutor;
+
+    /**
+     * The channel to the Vim server (or null if it hasn't been opened).
+     * It is only used by the tasks of the Vim executor.
+     */
+    private VimChannel vimChannel;
+
+    /**
+     * Whether or not the editor has been disposed of.
+     */
+    private volatile boolean disposed = false;
+
+    /**
+     * Whether or not the Vim server is known to be running.
+     */
+    private volatile boolean serverReady = false;
+
+    /**
+     * Whether or not Vim can list its servers on this system.
+     */
+    private volatile boolean serverListWorks = true;
+
+    /**
+     * The number of milliseconds to wait for a Vim process to exit or for
+     * the Vim server to become ready.
+     */
+    private static final long VIM_TIMEOUT = 5000;
+
+    /**
+     * The number of milliseconds to wait between asking Vim for the list of
+     * servers while the server is starting.
+     */
+    private static final long VIM_PROBE_INTERVAL = 500;
+
+    /**
+     * The source files which have been opened in Vim this session.
+     */
+    private static final Set<String> openedSources = new HashSet<String>();
+
+    /**
+     * The lock which keeps problems from being prebuilt at the same time.
+     */
+    private static final Object prebuildLock = new Object();
+
+
+    /**
+     * The executor which writes problem directories in the background.
+     */
+    private static final ExecutorService workspaceExecutor =
+        Executors.newCachedThreadPool(Util.daemonThreadFactory("VimCoder workspace"));
 
     /**
      * Map languages names to file extensions.
@@ -65,27 +153,424 @@ public class Editor
         languageExtension.put("Python", "py");
     }
 
+    /**
+     * Map language names to the other templates the language has and the
+     * files they are written to.  The templates are named after the
+     * language, as usual.
+     */
+    private static final Map<String,Map<String,String>> languageFiles = new HashMap<String,Map<String,String>>();
+    static
+    {
+        Map<String,String> files = new LinkedHashMap<String,String>();
+        files.put("Harness", "harness.hh");
+        files.put("Stress",  "stress.txt");
+        languageFiles.put("C++", files);
+
+        files = new LinkedHashMap<String,String>();
+        files.put("Server", "server.java");
+        languageFiles.put("Java", files);
+    }
+
 
     /**
      * Construct an editor with the problem objects given us by the Arena.
+     * The problem directory and its files are written in the background.
      * @param component A container for the particulars of the problem.
      * @param language The currently selected language.
      * @param renderer A helper object to help format the problem statement.
+     * @param log The log to report errors to.
      * @throws Exception If the editor could not set itself up.
      */
     public Editor(ProblemComponentModel component,
-                  Language language, Renderer renderer) throws Exception
+                  Language language, Renderer renderer, Log log) throws Exception
     {
+        this(component, language, renderer, log, false);
+    }
+
+    /**
+     * Prepare the problem directory for a problem which hasn't been opened
+     * yet, so it is ready by the time it is.
+     * The problem statement is left to be written when the problem is
+     * opened, and the Makefile's `prebuild' target (if any) is made once
+     * the files are written.
+     * @param component A container for the particulars of the problem.
+     * @param language The currently selected language.
+     * @param log The log to report errors to.
+     * @return The editor for the problem.
+     * @throws Exception If the editor could not set itself up.
+     */
+    public static Editor prefetch(ProblemComponentModel component,
+                                  Language language, Log log) throws Exception
+    {
+        return new Editor(component, language, null, log, true);
+    }
+
+    /**
+     * Construct an editor with the problem objects given us by the Arena.
+     * @param component A container for the particulars of the problem.
+     * @param language The currently selected language.
+     * @param renderer A helper object to help format the problem statement,
+     * or null to skip writing it.
+     * @param log The log to report errors to.
+     * @param prefetch Whether or not the problem isn't actually open.
+     * @throws Exception If the editor could not set itself up.
+     */
+    private Editor(final ProblemComponentModel component, final Language language,
+                   final Renderer renderer, final Log log, final boolean prefetch) throws Exception
+    {
+        this.log = log;
         this.id = String.valueOf(component.getProblem().getProblemID());
         this.name = component.getClassName();
         this.contestName = component.getProblem().getRound().getContestName().replaceAll(" ", "-");
         this.points = String.valueOf(component.getPoints().intValue());
+        this.language = language.getName();
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 60L, TimeUnit.SECONDS,
+                                                             new LinkedBlockingQueue<Runnable>(),
+                                                             Util.daemonThreadFactory("VimCoder Vim " + id));
+        executor.allowCoreThreadTimeOut(true);
+        this.vimExecutor = executor;
+
+        final String lang = language.getName();
+        final String ext = languageExtension.get(lang);
+
+        // Set up the terms used for the template expansion.
+        final HashMap<String,String> terms = new HashMap<String,String>();
+        terms.put("RETURNTYPE",           component.getReturnType().getDescriptor(language));
+        terms.put("CLASSNAME",            name);
+        terms.put("METHODNAME",           component.getMethodName());
+        terms.put("METHODPARAMS",         getMethodParams(component.getParamTypes(), component.getParamNames(), language));
+        terms.put("METHODPARAMNAMES",     Util.join(component.getParamNames(), ", "));
+        terms.put("METHODPARAMSTREAMIN",  Util.join(component.getParamNames(), " >> "));
+        terms.put("METHODPARAMSTREAMOUT", Util.join(component.getParamNames(), " << \", \" << "));
+        terms.put("METHODPARAMDECLARES",  getMethodParamDeclarations(component.getParamTypes(), component.getParamNames(), language));
+        terms.put("STRESSSPEC",           getStressSpec(component.getParamTypes(), component.getParamNames(), language));
+        terms.put("VIMCODER",             VimCoder.version);
+
+        final Metrics metrics = new Metrics(prefetch ? "prefetch" : "setProblemComponent", id);
+
+        // Make sure the problem directory exists.
+        this.directoryReady = workspaceExecutor.submit(new Callable<File>()
+        {
+            public File call() throws Exception
+            {
+                long start = System.nanoTime();
+                File directory = createDirectory();
+                metrics.record("directory", start);
+                return directory;
+            }
+        });
+
+        // The rest of the files only depend on the directory, so they are
+        // written at the same time.
+
+        // Write the problem statement as an HTML file in the problem directory.
+        if (renderer != null) files.add(workspaceExecutor.submit(new FileTask("Problem.html", metrics)
+        {
+            protected void write(File file) throws Exception
+            {
+                long start = System.nanoTime();
+                String text = renderer.toHTML(language);
+                metrics.record("render", start);
+                writeText(file, text);
+
+                start = System.nanoTime();
+                try
+                {
+                    StatementIndex.add(VimCoder.getStorageDirectory(), file.getParentFile(), text);
+                }
+                catch (IOException exception)
+                {
+                    log.error("Failed to index the problem statement: " + exception.getLocalizedMessage());
+                }
+                metrics.record("index", start);
+            }
+        }));
+
+        // Expand the template for the main class and write it to the current
+        // source file.
+        this.sourceReady = workspaceExecutor.submit(new FileTask(name + "." + ext, metrics)
+        {
+            protected void write(File file) throws Exception
+            {
+                writeTemplate(file, lang + "Template", terms);
+            }
+
+            public File call() throws Exception
+            {
+                File file = super.call();
+                if (prefetch) return file;
+                try
+                {
+                    SourceTracker tracker = SourceTracker.track(file, log);
+                    synchronized (Editor.this)
+                    {
+                        sourceTracker = tracker;
+                    }
+                    if (disposed) releaseSourceTracker();
+                }
+                catch (IOException exception)
+                {
+                    log.error("Failed to watch the source file: " + exception.getLocalizedMessage());
+                }
+                return file;
+            }
+        });
+        files.add(sourceReady);
+
+        // Expand the driver template and write it to a source file.
+        files.add(workspaceExecutor.submit(new FileTask("driver." + ext, metrics)
+        {
+            protected void write(File file) throws Exception
+            {
+                writeTemplate(file, lang + "Driver", terms);
+            }
+        }));
+
+        // Write the test cases to a text file.  The driver code can read this
+        // file and perform the tests based on what it reads.  If enabled, an
+        // index of where each test case starts in the file is also written.
+        files.add(workspaceExecutor.submit(new FileTask("testcases.txt", metrics)
+        {
+            private boolean written = false;
+
+            protected void write(File file) throws Exception
+            {
+                long start = System.nanoTime();
+                TestCase[] testCases = component.hasTestCases() ? component.getTestCases() : new TestCase[0];
+                File indexFile = VimCoder.isTestcaseIndex() ? new File(file.getParentFile(), "testcases.idx") : null;
+                writeTestCases(file, indexFile, testCases);
+                written = true;
+                metrics.record("write", start);
+            }
+
+            public File call() throws Exception
+            {
+                File file = super.call();
+                File indexFile = new File(file.getParentFile(), "testcases.idx");
+                if (!written && VimCoder.isTestcaseIndex() && !indexFile.canRead())
+                {
+                    // The test cases were written before the index was
+                    // enabled and may have been added to since, so the file
+                    // is indexed as it is rather than written again.
+                    long start = System.nanoTime();
+                    indexTestCases(file, indexFile, component.getParamTypes().length + 1);
+                    metrics.record("index", start);
+                }
+                return file;
+            }
+        }));
+
+        // Write the other files the language has, such as the parts of the
+        // driver which are the same for every problem.
+        Map<String,String> otherFiles = languageFiles.get(lang);
+        if (otherFiles != null)
+        {
+            for (final Map.Entry<String,String> other : otherFiles.entrySet())
+            {
+                files.add(workspaceExecutor.submit(new FileTask(other.getValue(), metrics)
+                {
+                    protected void write(File file) throws Exception
+                    {
+                        writeTemplate(file, lang + other.getKey(), terms);
+                    }
+                }));
+            }
+        }
+
+        // Finally, expand the Makefile template and write it.
+        files.add(workspaceExecutor.submit(new FileTask("Makefile", metrics)
+        {
+            protected void write(File file) throws Exception
+            {
+                writeTemplate(file, lang + "Makefile", terms);
+            }
+        }));
+
+        // Report the first problem once everything is written.
+        this.workspaceReady = workspaceExecutor.submit(new Callable<File>()
+        {
+            public File call() throws Exception
+            {
+                try
+                {
+                    List<File> written = new ArrayList<File>();
+                    for (Future<File> file : files) written.add(await(file));
+                    File directory = await(directoryReady);
+                    if (indexStale)
+                    {
+                        long start = System.nanoTime();
+                        ProblemIndex.put(id, lang, directory, written);
+                        metrics.record("index", start);
+                    }
+                    if (prefetch)
+                    {
+                        long start = System.nanoTime();
+                        prebuild(directory);
+                        metrics.record("prebuild", start);
+                    }
+                    return directory;
+                }
+                catch (Exception exception)
+                {
+                    log.error("An error occurred while loading the problem: "
+                              + exception.getLocalizedMessage());
+                    throw exception;
+                }
+                finally
+                {
+                    metrics.finish(log);
+                }
+            }
+        });
+    }
+
+    /**
+     * Get the future which completes once the problem directory and all of
+     * its files have been written.
+     * @return The future for the problem directory.
+     */
+    public Future<File> getWorkspaceReady()
+    {
+        return workspaceReady;
+    }
+
+    /**
+     * Get whether or not the editor can be used again for its problem.
+     * It can't if it was disposed of, if its problem directory couldn't be
+     * created, or if the directory or any of the files written in it have
+     * since been removed.  Files still being written are assumed to be
+     * fine.
+     * @return True if the editor can be used.
+     */
+    public boolean isUsable()
+    {
+        if (disposed) return false;
+        try
+        {
+            if (directoryReady.isDone() && !await(directoryReady).isDirectory()) return false;
+            for (Future<File> file : files)
+            {
+                if (file.isDone() && !await(file).canRead()) return false;
+            }
+            return true;
+        }
+        catch (Exception exception)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Stop using the editor.
+     * The source file stops being watched, and commands already sent to the
+     * Vim server are still handled before the channel to the server is
+     * released, but the editor shouldn't be used after this.  The Vim
+     * server and the files in the problem directory are left alone.
+     */
+    public void dispose()
+    {
+        if (disposed) return;
+        disposed = true;
+        releaseSourceTracker();
+        vimExecutor.submit(new Runnable()
+        {
+            public void run()
+            {
+                if (vimChannel != null) vimChannel.release();
+                vimChannel = null;
+            }
+        });
+        vimExecutor.shutdown();
+    }
+
+    /**
+     * Stop watching the source file, if it is being watched.
+     */
+    private void releaseSourceTracker()
+    {
+        SourceTracker tracker;
+        synchronized (this)
+        {
+            tracker = sourceTracker;
+            sourceTracker = null;
+        }
+        if (tracker != null) tracker.untrack();
+    }
+
+    /**
+     * Save the source code provided by the server, and tell the Vim server to
+     * edit the current source file.
+     * The source is saved to a file named after the class, without an
+     * extension, and only if it differs from what was saved before.  If the
+     * Vim server is still running and has already opened the source file,
+     * the file isn't opened again; the buffer of the saved source is
+     * reloaded instead if it changed and Vim has it open.
+     * Problems with the Vim server are reported to the log.
+     * @param source The source code.
+     * @throws Exception If the source couldn't be written.
+     */
+    public void setSource(String source) throws Exception
+    {
+        Metrics metrics = new Metrics("setSource", id);
+        long start = System.nanoTime();
+        File file = new File(await(directoryReady), name);
+        boolean changed = !file.canRead() || !Util.normalizeLines(source, true).equals(Util.readFile(file));
+        if (changed) Util.writeFile(file, source);
+        metrics.record(changed ? "write" : "compare", start);
+
+        showSource(await(sourceReady).getPath(), changed ? file.getPath() : null, metrics);
+    }
+
+    /**
+     * Read the source code from the current source file.
+     * The source file is watched and loaded in the background whenever it
+     * is written, so it usually doesn't need to be read here.
+     * @return The source code.
+     * @throws Exception If the source file could not be read.
+     */
+    public String getSource() throws Exception
+    {
+        Metrics metrics = new Metrics("getSource", id);
+        File file = await(sourceReady);
+
+        long start = System.nanoTime();
+        String source;
+        SourceTracker tracker = sourceTracker;
+        if (tracker == null)
+        {
+            source = Util.readFile(file);
+        }
+        else
+        {
+            source = tracker.getSource();
+            tracker.uploaded(source);
+        }
+        metrics.record("read", start);
+
+        metrics.finish(log);
+        return source;
+    }
+
+
+    /**
+     * Find the problem directory, creating it if it doesn't exist yet.
+     * The problem index is asked first, which saves looking for the
+     * directory in both places on a slow file system.
+     * @return The problem directory.
+     * @throws IOException If the directory could not be created.
+     */
+    private File createDirectory() throws IOException
+    {
+        File directory = ProblemIndex.getDirectory(id, language);
+        if (directory != null && directory.isDirectory()) return directory;
+        indexStale = true;
 
         // Make sure the top-level vimcoder directory exists.
         File topDir = VimCoder.getStorageDirectory();
         if (!topDir.isDirectory())
         {
-            if (!topDir.mkdirs()) throw new IOException(topDir.getPath());
+            if (!topDir.mkdirs() && !topDir.isDirectory()) throw new IOException(topDir.getPath());
         }
 
         // Make sure the problem directory exists.
@@ -93,211 +578,560 @@ public class Editor
         File oldStyleDirectory = new File(topDir, id);
         if (newStyleDirectory.isDirectory())
         {
-            this.directory = newStyleDirectory;
+            directory = newStyleDirectory;
         }
         else if (oldStyleDirectory.isDirectory())
         {
-            this.directory = oldStyleDirectory;
+            directory = oldStyleDirectory;
         }
         else if (VimCoder.isContestDirNames())
         {
-            this.directory = newStyleDirectory;
+            directory = newStyleDirectory;
             if (!directory.mkdirs()) throw new IOException(directory.getPath());
         }
         else
         {
-            this.directory = oldStyleDirectory;
+            directory = oldStyleDirectory;
             if (!directory.mkdirs()) throw new IOException(directory.getPath());
         }
+        return directory;
+    }
 
-        String lang = language.getName();
-        String ext = languageExtension.get(lang);
-
-        // Set up the terms used for the template expansion.
-        HashMap<String,String> terms = new HashMap<String,String>();
-        terms.put("RETURNTYPE",           component.getReturnType().getDescriptor(language));
-        terms.put("CLASSNAME",            name);
-        terms.put("METHODNAME",           component.getMethodName());
-        terms.put("METHODPARAMS",         getMethodParams(component.getParamTypes(), component.getParamNames(), language));
-        terms.put("METHODPARAMNAMES",     Util.join(component.getParamNames(), ", "));
-        terms.put("METHODPARAMSTREAMIN",  Util.join(component.getParamNames(), " >> "));
-        terms.put("METHODPARAMSTREAMOUT", Util.join(component.getParamNames(), " << \", \" << "));
-        terms.put("METHODPARAMDECLARES",  getMethodParamDeclarations(component.getParamTypes(), component.getParamNames(), language));
-        terms.put("VIMCODER",             VimCoder.version);
-
-        // Write the problem statement as an HTML file in the problem directory.
-        File problemFile = new File(directory, "Problem.html");
-        if (!problemFile.canRead())
+    /**
+     * Build whatever can be built before the solution is written by making
+     * the `prebuild' target of the Makefile.
+     * Nothing happens if there is no Makefile, and failures are ignored
+     * since not every Makefile has the target.  Only one problem is built
+     * at a time, so preparing a round doesn't take over the machine.
+     * @param directory The problem directory.
+     * @throws InterruptedException If the thread was interrupted.
+     */
+    private static void prebuild(File directory) throws InterruptedException
+    {
+        if (!new File(directory, "Makefile").canRead()) return;
+        synchronized (prebuildLock)
         {
-            FileWriter writer = new FileWriter(problemFile);
             try
             {
-                writer.write(renderer.toHTML(language));
+                ProcessBuilder builder = new ProcessBuilder("make", "prebuild");
+                builder.directory(directory);
+                builder.redirectErrorStream(true);
+                Process child = builder.start();
+                child.getOutputStream().close();
+                InputStream output = child.getInputStream();
+                try
+                {
+                    byte[] buffer = new byte[4096];
+                    while (0 <= output.read(buffer));
+                }
+                finally
+                {
+                    output.close();
+                }
+                child.waitFor();
             }
-            finally
+            catch (IOException exception)
             {
-                writer.close();
+                // Make isn't available; intentionally ignoring exception.
             }
         }
+    }
 
-        // Expand the template for the main class and write it to the current
-        // source file.
-        this.sourceFile = new File(directory, name + "." + ext);
-        if (!sourceFile.canRead())
+    /**
+     * Write the test cases to a file, one line for the expected output
+     * followed by one line for each input.
+     * The lines are streamed to the file as they are encoded.  The index
+     * file, if any, gets one line for each test case with the byte offset
+     * of the test case in the test case file.
+     * @param file The test case file.
+     * @param indexFile The index file, or null.
+     * @param testCases The test cases.
+     * @throws IOException If the files could not be written.
+     */
+    private static void writeTestCases(File file, File indexFile, TestCase[] testCases) throws IOException
+    {
+        byte[] separator = System.getProperty("line.separator").getBytes(Util.CHARSET);
+        long[] offsets = new long[testCases.length];
+        long offset = 0;
+
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+        try
         {
-            String text = Util.expandTemplate(readTemplate(lang + "Template"), terms);
-            FileWriter writer = new FileWriter(sourceFile);
-            writer.write(text);
-            writer.close();
+            for (int i = 0; i < testCases.length; ++i)
+            {
+                offsets[i] = offset;
+                offset += writeLine(out, testCases[i].getOutput(), separator);
+                for (String input : testCases[i].getInput())
+                {
+                    offset += writeLine(out, input, separator);
+                }
+            }
+        }
+        finally
+        {
+            out.close();
         }
 
-        // Expand the driver template and write it to a source file.
-        File driverFile = new File(directory, "driver." + ext);
-        if (!driverFile.canRead())
+        if (indexFile == null) return;
+        Writer index = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(indexFile), Util.CHARSET));
+        try
         {
-            String text = Util.expandTemplate(readTemplate(lang + "Driver"), terms);
-            FileWriter writer = new FileWriter(driverFile);
-            writer.write(text);
-            writer.close();
+            for (long start : offsets)
+            {
+                index.write(String.valueOf(start));
+                index.write(System.getProperty("line.separator"));
+            }
+        }
+        finally
+        {
+            index.close();
         }
+    }
 
-        // Write the test cases to a text file.  The driver code can read this
-        // file and perform the tests based on what it reads.
-        File testcaseFile = new File(directory, "testcases.txt");
-        if (!testcaseFile.canRead())
+    /**
+     * Write the index of an existing test case file.
+     * Each test case is taken to be the given number of lines, not
+     * counting blank lines, as they are written by writeTestCases.
+     * @param file The test case file.
+     * @param indexFile The index file.
+     * @param linesPerCase The number of lines in each test case.
+     * @throws IOException If the test case file could not be read or the
+     * index file could not be written.
+     */
+    private static void indexTestCases(File file, File indexFile, int linesPerCase) throws IOException
+    {
+        Writer index = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(indexFile), Util.CHARSET));
+        try
         {
-            StringBuilder text = new StringBuilder();
-            if (component.hasTestCases())
+            InputStream in = new BufferedInputStream(new FileInputStream(file));
+            try
             {
-                for (TestCase testCase : component.getTestCases())
+                long offset = 0;
+                long lineStart = 0;
+                boolean blank = true;
+                int lines = 0;
+                int c;
+                while ((c = in.read()) != -1)
                 {
-                    text.append(testCase.getOutput() + System.getProperty("line.separator"));
-                    for (String input : testCase.getInput())
+                    if (c != '\n' && c != '\r' && c != ' ' && c != '\t' && blank)
+                    {
+                        blank = false;
+                        if (lines++ % linesPerCase == 0)
+                        {
+                            index.write(String.valueOf(lineStart));
+                            index.write(System.getProperty("line.separator"));
+                        }
+                    }
+                    ++offset;
+                    if (c == '\n')
                     {
-                        text.append(input + System.getProperty("line.separator"));
+                        lineStart = offset;
+                        blank = true;
                     }
                 }
             }
-            FileWriter writer = new FileWriter(testcaseFile);
-            writer.write(text.toString());
-            writer.close();
+            finally
+            {
+                in.close();
+            }
         }
-
-        // Finally, expand the Makefile template and write it.
-        File makeFile = new File(directory, "Makefile");
-        if (!makeFile.canRead())
+        finally
         {
-            String text = Util.expandTemplate(readTemplate(lang + "Makefile"), terms);
-            FileWriter writer = new FileWriter(makeFile);
-            writer.write(text);
-            writer.close();
+            index.close();
         }
     }
 
     /**
-     * Save the source code provided by the server, and tell the Vim server to
-     * edit the current source file.
-     * @param source The source code.
-     * @throws Exception If the source couldn't be written or the Vim server
-     * had a problem.
+     * Write a line of text to a stream.
+     * @param out The stream.
+     * @param line The line, without the separator.
+     * @param separator The encoded line separator.
+     * @return The number of bytes written.
+     * @throws IOException If the line could not be written.
      */
-    public void setSource(String source) throws Exception
+    private static int writeLine(OutputStream out, String line, byte[] separator) throws IOException
     {
-        FileWriter writer = new FileWriter(new File(directory, name));
-        writer.write(source);
-        writer.close();
-        sendVimCommand("--remote-tab-silent", sourceFile.getPath());
+        byte[] bytes = line.getBytes(Util.CHARSET);
+        out.write(bytes);
+        out.write(separator);
+        return bytes.length + separator.length;
     }
 
     /**
-     * Read the source code from the current source file.
-     * @return The source code.
-     * @throws IOException If the source file could not be read.
+     * A task which writes one file in the problem directory, unless the file
+     * already exists.  A file the problem index knows only has its size and
+     * modification time checked; any other file is only written if it can't
+     * be read, so an existing file is never replaced.
      */
-    public String getSource() throws IOException
+    private abstract class FileTask implements Callable<File>
     {
-        return Util.readFile(sourceFile);
+        /**
+         * The name of the file.
+         */
+        private final String fileName;
+
+        /**
+         * The timings to add the task to.
+         */
+        private final Metrics metrics;
+
+        /**
+         * Construct a task for writing a file.
+         * @param fileName The name of the file.
+         * @param metrics The timings to add the task to.
+         */
+        public FileTask(String fileName, Metrics metrics)
+        {
+            this.fileName = fileName;
+            this.metrics = metrics;
+        }
+
+        public File call() throws Exception
+        {
+            File file = new File(await(directoryReady), fileName);
+            if (!ProblemIndex.isUnchanged(id, language, file))
+            {
+                indexStale = true;
+                if (!file.canRead()) write(file);
+            }
+            return file;
+        }
+
+        /**
+         * Write the file.
+         * @param file The file to write.
+         * @throws Exception If the file could not be written.
+         */
+        protected abstract void write(File file) throws Exception;
+
+        /**
+         * Expand a template and write it to a file, timing how long it
+         * takes.  Templates which have no terms are written as they were
+         * encoded when they were loaded.
+         * @param file The file to write.
+         * @param tName The name of the template.
+         * @param terms A map of key/value terms.
+         * @throws IOException If the file is not writable.
+         */
+        protected void writeTemplate(File file, String tName, Map<String,String> terms) throws IOException
+        {
+            long start = System.nanoTime();
+            Template template = TemplateCache.get(tName);
+            if (!template.hasTerms())
+            {
+                Util.writeFile(file, template.getBytes());
+                metrics.record("write", start);
+                return;
+            }
+            String text = template.expand(terms);
+            metrics.record("expand", start);
+            writeText(file, text);
+        }
+
+        /**
+         * Write a string to a file, timing how long it takes.
+         * @param file The file to write.
+         * @param text The new contents of the file.
+         * @throws IOException If the file is not writable.
+         */
+        protected void writeText(File file, String text) throws IOException
+        {
+            long start = System.nanoTime();
+            Util.writeFile(file, text);
+            metrics.record("write", start);
+        }
+    }
+
+    /**
+     * Wait for a background task to finish.
+     * @param future The future of the task.
+     * @return The result of the task.
+     * @throws Exception The exception thrown by the task, if any.
+     */
+    private static <T> T await(Future<T> future) throws Exception
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (ExecutionException exception)
+        {
+            Throwable cause = exception.getCause();
+            if (cause instanceof Exception) throw (Exception)cause;
+            throw exception;
+        }
     }
 
 
     /**
-     * Send a command to the Vim server.
-     * If the server isn't running, it will be started with the name
-     * VIMCODER#### where #### is the problem ID.
-     * @param command The command to send to the server.
-     * @param argument A single argument for the remote command.
-     * @throws Exception If the command could not be sent.
+     * Tell the Vim server to edit the source file, unless it is running and
+     * already has.  If it has, a changed file is reloaded in place if Vim
+     * has it open.
+     * The commands are queued and this method returns right away.  Commands
+     * are sent in order, failures are reported to the log, and the timings
+     * are finished once the commands have been handled.
+     * @param sourcePath The path of the source file.
+     * @param changedPath The path of a file which changed, or null.
+     * @param metrics The timings to add the command to.
+     * @return A future for the exit code of the Vim process.
      */
-    private void sendVimCommand(String command, String argument) throws Exception
+    private Future<Integer> showSource(final String sourcePath, final String changedPath, final Metrics metrics)
     {
-        String[] arguments = {argument};
-        sendVimCommand(command, arguments);
+        return vimExecutor.submit(new Callable<Integer>()
+        {
+            public Integer call() throws Exception
+            {
+                long start = System.nanoTime();
+                try
+                {
+                    boolean opened;
+                    synchronized (openedSources)
+                    {
+                        opened = openedSources.contains(sourcePath);
+                    }
+                    if (opened && isVimServerRunning())
+                    {
+                        if (changedPath == null) return null;
+
+                        String path = changedPath.replace("'", "''");
+                        String[] keys = {"<C-\\><C-N>:if bufloaded('" + path + "') | execute 'checktime' bufnr('"
+                                         + path + "') | endif<CR>"};
+                        Integer exitCode = runVimCommand("--remote-send", keys, true);
+                        if (exitCode == null || exitCode == 0) return exitCode;
+                    }
+
+                    String[] arguments = {sourcePath};
+                    Integer exitCode = runVimCommand("--remote-tab-silent", arguments, false);
+                    synchronized (openedSources)
+                    {
+                        if (exitCode == null || exitCode == 0) openedSources.add(sourcePath);
+                    }
+                    return exitCode;
+                }
+                catch (Exception exception)
+                {
+                    log.error("Failed to send a command to Vim: " + exception.getLocalizedMessage());
+                    throw exception;
+                }
+                finally
+                {
+                    metrics.record("vim", start);
+                    metrics.finish(log);
+                }
+            }
+        });
     }
 
     /**
-     * Send a command to the Vim server.
-     * If the server isn't running, it will be started with the name
-     * VIMCODER#### where #### is the problem ID.
+     * Send a command to the Vim server and wait for it to be handled.
+     * If the server is connected to our channel, the command is sent as a
+     * message.  Otherwise, if the server isn't running, it will be started
+     * with the name VIMCODER#### where #### is the problem ID, and it will
+     * be told to connect to the channel.
      * @param command The command to send to the server.
      * @param argument Arguments for the remote command.
-     * @throws Exception If the command could not be sent.
+     * @param quiet Whether or not to leave a failure unreported.
+     * @return The exit code of the Vim process, or null if there is none.
+     * @throws Exception If the Vim process could not be started.
      */
-    private void sendVimCommand(String command, String[] arguments) throws Exception
+    private Integer runVimCommand(String command, String[] arguments, boolean quiet) throws Exception
     {
+        String serverName = "VimCoder" + id;
+        VimChannel channel = getVimChannel(serverName);
+        if (channel != null)
+        {
+            String exCommand = getExCommand(command, arguments);
+            if (exCommand != null && channel.send(exCommand)) return null;
+        }
+
         String[] vimCommand = VimCoder.getVimCommand().split("\\s");
-        String[] flags = {"--servername", "VimCoder" + id, command};
+        String[] flags = {"--servername", serverName, command};
+        if (channel != null)
+        {
+            String[] connect = {"-c", channel.getConnectCommand()};
+            flags = Util.concat(connect, flags);
+        }
         vimCommand = Util.concat(vimCommand, flags);
         vimCommand = Util.concat(vimCommand, arguments);
-        Process child = Runtime.getRuntime().exec(vimCommand, null, directory);
-
-        /* FIXME: This is a pretty bad hack.  The problem is that the Vim
-         * process doesn't fork to the background on some systems, so we
-         * can't wait on the child.  At the same time, calling this method
-         * before the previous child could finish initializing the server
-         * may result in multiple editor windows popping up.  We'd also
-         * like to be able to get the return code from the child if we can.
-         * The workaround here is to stall the thread for a little while or
-         * until we see that the child exits.  If the child never exits
-         * before the timeout, we will assume it is not backgrounding and
-         * that everything worked.  This works as long as the Vim server is
-         * able to start within the stall period. */
-        long expire = System.currentTimeMillis() + 2500;
-        while (System.currentTimeMillis() < expire)
-        {
-            Thread.yield();
+        ProcessBuilder builder = new ProcessBuilder(vimCommand);
+        builder.directory(await(directoryReady));
+        ProcessOutput output = ProcessOutput.redirect(builder);
+        try
+        {
+            Process child = builder.start();
+            child.getOutputStream().close();
+
+            /* The Vim process doesn't fork to the background on some systems,
+             * so we can't just wait on the child.  At the same time, sending
+             * the next command before the child could finish initializing the
+             * server may result in multiple editor windows popping up.  So we
+             * wait until the child exits or, if it may be starting the server,
+             * until the server says it is ready.  If neither happens before
+             * the timeout, we assume the child is not backgrounding and that
+             * everything worked. */
+            boolean starting = !serverReady;
+            Integer exitCode = null;
+            long now = System.currentTimeMillis();
+            long expire = now + VIM_TIMEOUT;
+            long nextProbe = now + VIM_PROBE_INTERVAL;
+            long delay = 10;
+            for (;;)
+            {
+                now = System.currentTimeMillis();
+                if (exitCode == null)
+                {
+                    try
+                    {
+                        exitCode = child.exitValue();
+                        nextProbe = now;
+                    }
+                    catch (IllegalThreadStateException exception)
+                    {
+                        // The child has not exited; intentionally ignoring exception.
+                    }
+                }
+                if (exitCode != null && (exitCode != 0 || !starting)) break;
+
+                if (starting)
+                {
+                    // The channel is free to check, but listing the servers
+                    // takes another Vim process, so that is only done right
+                    // after the child exits and then once in a while.
+                    if (channel != null && channel.isConnected()) break;
+                    if (nextProbe <= now)
+                    {
+                        Boolean listed = isVimServerListed(serverName);
+                        if (listed == null ? exitCode != null : listed) break;
+                        nextProbe = now + VIM_PROBE_INTERVAL;
+                    }
+                }
+
+                if (expire < now) break;
+                Metrics.countRetry();
+                Thread.sleep(delay);
+                delay = Math.min(2 * delay, 250);
+            }
+
+            if (exitCode != null && exitCode != 0)
+            {
+                if (quiet) return exitCode;
+                String text = output.getText();
+                log.error("Vim process returned exit code " + exitCode + (text.length() != 0 ? ": " + text : "."));
+            }
+            else
+            {
+                serverReady = true;
+            }
+            return exitCode;
+        }
+        finally
+        {
+            output.delete();
+        }
+    }
+
+    /**
+     * Check whether the Vim server for the problem is still running.
+     * Only a server which has connected to our channel can be checked
+     * without starting another Vim process, so a server which can't
+     * connect is never known to be running.
+     * @return True if the server is known to be running, false if it isn't
+     * or we can't tell.
+     */
+    private boolean isVimServerRunning()
+    {
+        VimChannel channel = getVimChannel("VimCoder" + id);
+        return channel != null && channel.isConnected();
+    }
+
+    /**
+     * Check whether a Vim server appears in the list of servers known to
+     * Vim, which takes running another Vim process.
+     * @param serverName The name of the Vim server.
+     * @return Whether or not the server is listed, or null if we can't tell.
+     * @throws InterruptedException If the thread was interrupted.
+     */
+    private Boolean isVimServerListed(String serverName) throws InterruptedException
+    {
+        if (!serverListWorks) return null;
+
+        String[] vimCommand = VimCoder.getVimCommand().split("\\s");
+        String[] flags = {"--serverlist"};
+        vimCommand = Util.concat(vimCommand, flags);
+        try
+        {
+            Process child = Runtime.getRuntime().exec(vimCommand);
+            child.getOutputStream().close();
+            child.getErrorStream().close();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(child.getInputStream()));
+            boolean found = false;
             try
             {
-                int exitCode = child.exitValue();
-                if (exitCode != 0) throw new Exception("Vim process returned exit code " + exitCode + ".");
-                break;
+                String line;
+                while ((line = reader.readLine()) != null)
+                {
+                    if (line.trim().equalsIgnoreCase(serverName)) found = true;
+                }
             }
-            catch (IllegalThreadStateException exception)
+            finally
             {
-                // The child has not exited; intentionally ignoring exception.
+                reader.close();
             }
+            if (child.waitFor() == 0) return found;
         }
+        catch (IOException exception)
+        {
+            // Treated the same as the command failing.
+        }
+        serverListWorks = false;
+        return null;
     }
 
 
     /**
-     * Read a template.
-     * We first look in the storage directory.  If we can't find one, we
-     * look among the resources.
-     * @param tName The name of the template.
-     * @return The contents of the template file, or an empty string.
+     * Get the channel to a Vim server, opening it the first time.
+     * @param serverName The name of the Vim server.
+     * @return The channel, or null if it couldn't be opened.
      */
-    private String readTemplate(String tName)
+    private VimChannel getVimChannel(String serverName)
     {
-        File templateFile = new File(VimCoder.getStorageDirectory(), tName);
+        if (vimChannel != null) return vimChannel;
         try
         {
-            if (templateFile.canRead()) return Util.readFile(templateFile);
-            return Util.readResource(tName);
+            vimChannel = VimChannel.get(serverName);
+            return vimChannel;
         }
         catch (IOException exception)
         {
-            return "";
+            return null;
+        }
+    }
+
+    /**
+     * Convert a remote command to the Ex command which does the same thing.
+     * @param command The remote command.
+     * @param arguments Arguments for the remote command.
+     * @return The Ex command, or null if there is no equivalent.
+     */
+    private String getExCommand(String command, String[] arguments)
+    {
+        if (command.equals("--remote-send") && arguments.length == 1
+            && arguments[0].startsWith("<C-\\><C-N>:") && arguments[0].endsWith("<CR>"))
+        {
+            String keys = arguments[0];
+            return keys.substring("<C-\\><C-N>:".length(), keys.length() - "<CR>".length());
+        }
+        if (!command.equals("--remote-tab-silent")) return null;
+
+        StringBuilder exCommand = new StringBuilder();
+        for (String argument : arguments)
+        {
+            if (exCommand.length() != 0) exCommand.append(" | ");
+            exCommand.append("execute 'tab drop ' . fnameescape('")
+                     .append(argument.replace("'", "''"))
+                     .append("')");
         }
+        return exCommand.toString();
     }
 
 
@@ -350,6 +1184,41 @@ public class Editor
         String[] typeStrings = getStringTypes(types, language);
         return Util.join(Util.combine(typeStrings, names, "\t"), end) + end;
     }
+
+    /**
+     * Get a spec for generating large inputs to the method, one line for
+     * each parameter preceded by a comment with its name and type.  The
+     * sizes and ranges are only guesses, since the constraints of the
+     * problem are not known.
+     * @param types The data types of the parameters.
+     * @param names The parameter names.
+     * @param language The currently selected language.
+     * @return The spec.
+     */
+    private String getStressSpec(DataType[] types, String[] names, Language language)
+    {
+        String newline = System.getProperty("line.separator");
+        String[] typeStrings = getStringTypes(types, language);
+        StringBuilder spec = new StringBuilder();
+        for (int i = 0; i < typeStrings.length; ++i)
+        {
+            String type = typeStrings[i];
+            String base = type.replaceAll("vector|\\[\\]|[<>\\s]", "").toLowerCase();
+
+            String line;
+            if (base.startsWith("string")) line = "string 50 50 abcdefghijklmnopqrstuvwxyz";
+            else if (base.equals("double")) line = "double 0 1000000";
+            else if (base.equals("char")) line = "char abcdefghijklmnopqrstuvwxyz";
+            else if (base.equals("bool") || base.equals("boolean")) line = "int 0 1";
+            else if (base.startsWith("long")) line = "int 1 1000000000000000000";
+            else line = "int 1 1000000000";
+            if (!base.equals(type.replaceAll("\\s", "").toLowerCase())) line = "array 50 50 " + line;
+
+            spec.append("# ").append(names[i]).append(" (").append(type).append(')').append(newline);
+            spec.append(line).append(newline);
+        }
+        return spec.toString();
+    }
 }
 
 // vim:et:ts=8:sts=4:sw=4
@@ -0,0 +1,26 @@
+
+package com.dogcows;
+
+/**
+ * @author Charles McGarvey
+ * The TopCoder Arena editor plug-in providing support for Vim.
+ * 
+ * Distributable under the terms and conditions of the 2-clause BSD license;
+ * see the file COPYING for a complete text of the license.
+ */
+public interface Log
+{
+    /**
+     * Output non-critical messages to the log.
+     * @param what The text of the message.
+     */
+    public void info(String what);
+
+    /**
+     * Output critical messages and errors to the log.
+     * @param what The text of the message.
+     */
+    public void error(String what);
+}
+
+// vim:et:ts=8:sts=4:sw=4
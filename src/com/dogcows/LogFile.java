@@ -0,0 +1,115 @@
+
+package com.dogcows;
+
+import java.io.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * @author Charles McGarvey
+ * The TopCoder Arena editor plug-in providing support for Vim.
+ * 
+ * Distributable under the terms and conditions of the 2-clause BSD license;
+ * see the file COPYING for a complete text of the license.
+ */
+public class LogFile
+{
+    /**
+     * The size in bytes a log file may grow to before it is rotated.
+     */
+    private static final long MAX_SIZE = 1024 * 1024;
+
+    /**
+     * The number of rotated log files to keep.
+     */
+    private static final int BACKUPS = 3;
+
+
+    /**
+     * The name of the log file in the storage directory.
+     */
+    private final String name;
+
+    /**
+     * The executor which writes to the file in order.
+     */
+    private final ExecutorService executor =
+        Executors.newSingleThreadExecutor(Util.daemonThreadFactory("VimCoder log file"));
+
+
+    /**
+     * Construct a log file.
+     * @param name The name of the log file in the storage directory.
+     */
+    public LogFile(String name)
+    {
+        this.name = name;
+    }
+
+    /**
+     * Append text to the log file in the background.
+     * If the file would grow too large, it is renamed by adding ".1" to the
+     * name (and any older files are shifted along) before the text is
+     * written to a new file.
+     * @param text The text to append.
+     */
+    public void append(final String text)
+    {
+        executor.execute(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    write(text);
+                }
+                catch (IOException exception)
+                {
+                    // There is nowhere left to report a failure to log.
+                }
+            }
+        });
+    }
+
+
+    /**
+     * Append text to the log file, rotating it first if necessary.
+     * @param text The text to append.
+     * @throws IOException If the file could not be written.
+     */
+    private void write(String text) throws IOException
+    {
+        File dir = VimCoder.getStorageDirectory();
+        if (!dir.isDirectory()) return;
+
+        byte[] bytes = text.getBytes(Util.CHARSET);
+        File file = new File(dir, name);
+        if (0 < file.length() && MAX_SIZE < file.length() + bytes.length) rotate(dir);
+
+        OutputStream out = new FileOutputStream(file, true);
+        try
+        {
+            out.write(bytes);
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Rename the log file and the older log files, dropping the oldest.
+     * @param dir The directory with the log files.
+     */
+    private void rotate(File dir)
+    {
+        new File(dir, name + "." + BACKUPS).delete();
+        for (int i = BACKUPS - 1; 0 <= i; --i)
+        {
+            File from = new File(dir, i == 0 ? name : name + "." + i);
+            if (from.exists()) from.renameTo(new File(dir, name + "." + (i + 1)));
+        }
+    }
+}
+
+// vim:et:ts=8:sts=4:sw=4
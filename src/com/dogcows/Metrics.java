@@ -0,0 +1,201 @@
+
+package com.dogcows;
+
+import java.io.*;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Charles McGarvey
+ * The TopCoder Arena editor plug-in providing support for Vim.
+ * 
+ * Distributable under the terms and conditions of the 2-clause BSD license;
+ * see the file COPYING for a complete text of the license.
+ */
+public class Metrics
+{
+    /**
+     * The number of errors logged this session.
+     */
+    private static final AtomicInteger errors = new AtomicInteger();
+
+    /**
+     * The number of times something was tried again this session.
+     */
+    private static final AtomicInteger retries = new AtomicInteger();
+
+    /**
+     * The format of timestamps in the metrics file.
+     */
+    private static final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+
+    /**
+     * The executor which appends records to the metrics file in order, so
+     * the callbacks being timed don't wait on the disk.
+     */
+    private static final ExecutorService executor =
+        Executors.newSingleThreadExecutor(Util.daemonThreadFactory("VimCoder metrics"));
+
+
+    /**
+     * The name of the operation being timed.
+     */
+    private final String operation;
+
+    /**
+     * The problem ID number.
+     */
+    private final String id;
+
+    /**
+     * The time the operation started, in nanoseconds.
+     */
+    private final long start = System.nanoTime();
+
+    /**
+     * Map stage names to the total nanoseconds spent in them.
+     */
+    private final Map<String,Long> stages = new LinkedHashMap<String,Long>();
+
+
+    /**
+     * Note that an error occurred.
+     */
+    public static void countError()
+    {
+        errors.incrementAndGet();
+    }
+
+    /**
+     * Note that something was tried again.
+     */
+    public static void countRetry()
+    {
+        retries.incrementAndGet();
+    }
+
+
+    /**
+     * Start timing an operation.
+     * @param operation The name of the operation, such as the name of the
+     * Arena callback.
+     * @param id The problem ID number.
+     */
+    public Metrics(String operation, String id)
+    {
+        this.operation = operation;
+        this.id = id;
+    }
+
+    /**
+     * Add the time spent in a stage since some point.
+     * Stages of the operation which run at the same time are added up
+     * separately, so the stages may add up to more than the total.
+     * @param stage The name of the stage.
+     * @param since The value of System.nanoTime() when the stage started.
+     */
+    public synchronized void record(String stage, long since)
+    {
+        long elapsed = System.nanoTime() - since;
+        Long total = stages.get(stage);
+        stages.put(stage, total == null ? elapsed : total + elapsed);
+    }
+
+    /**
+     * Stop timing the operation.
+     * A summary is written to the log and appended to the metrics file in
+     * the storage directory in the background.
+     * @param log The log to write the summary to.
+     */
+    public void finish(Log log)
+    {
+        long total = System.nanoTime() - start;
+
+        StringBuilder summary = new StringBuilder();
+        StringBuilder record = new StringBuilder();
+        summary.append(operation).append(" took ").append(toMillis(total)).append(" ms");
+        record.append(operation).append(' ').append(id).append(" total=").append(toMillis(total));
+        synchronized (this)
+        {
+            String glue = " (";
+            for (Map.Entry<String,Long> stage : stages.entrySet())
+            {
+                summary.append(glue).append(stage.getKey()).append(' ')
+                       .append(toMillis(stage.getValue())).append(" ms");
+                record.append(' ').append(stage.getKey()).append('=').append(toMillis(stage.getValue()));
+                glue = ", ";
+            }
+            if (!stages.isEmpty()) summary.append(')');
+        }
+        summary.append('.');
+        record.append(" errors=").append(errors.get()).append(" retries=").append(retries.get());
+
+        log.info(summary.toString());
+        append(new Date(), record.toString());
+    }
+
+
+    /**
+     * Convert nanoseconds to milliseconds with one decimal place.
+     * @param nanos The number of nanoseconds.
+     * @return The number of milliseconds.
+     */
+    private static String toMillis(long nanos)
+    {
+        return String.valueOf(Math.round(nanos / 1e5) / 10.0);
+    }
+
+    /**
+     * Append a timestamped record to the metrics file in the background.
+     * @param date The time of the record.
+     * @param record The record.
+     */
+    private static void append(final Date date, final String record)
+    {
+        executor.execute(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    write(date, record);
+                }
+                catch (IOException exception)
+                {
+                    // Losing a metrics record isn't worth bothering anyone about.
+                }
+            }
+        });
+    }
+
+    /**
+     * Append a timestamped record to the metrics file.
+     * This is only called by the executor, one record at a time.
+     * @param date The time of the record.
+     * @param record The record.
+     * @throws IOException If the file could not be written.
+     */
+    private static void write(Date date, String record) throws IOException
+    {
+        File dir = VimCoder.getStorageDirectory();
+        if (!dir.isDirectory()) return;
+
+        Writer writer = new OutputStreamWriter(new FileOutputStream(new File(dir, "metrics.log"), true),
+                                               Util.CHARSET);
+        try
+        {
+            writer.write(dateFormat.format(date) + " " + record + System.getProperty("line.separator"));
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+}
+
+// vim:et:ts=8:sts=4:sw=4
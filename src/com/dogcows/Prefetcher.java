@@ -0,0 +1,109 @@
+
+package com.dogcows;
+
+import java.lang.reflect.Method;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.topcoder.client.contestant.ProblemComponentModel;
+import com.topcoder.client.contestant.ProblemModel;
+import com.topcoder.client.contestant.RoundModel;
+import com.topcoder.shared.language.Language;
+
+/**
+ * @author Charles McGarvey
+ * The TopCoder Arena editor plug-in providing support for Vim.
+ * 
+ * Distributable under the terms and conditions of the 2-clause BSD license;
+ * see the file COPYING for a complete text of the license.
+ */
+public abstract class Prefetcher
+{
+    /**
+     * The rounds and divisions whose problems have already been prefetched.
+     */
+    private static final Set<String> prefetched = new HashSet<String>();
+
+
+    /**
+     * Prepare the problem directories for the other problems in the round
+     * of a problem that was just opened.
+     * This only happens the first time a problem from a round and division
+     * is opened.  Not every version of the Arena tells us about the other
+     * problems, and problems the Arena hasn't loaded yet are skipped, so
+     * this does as much as it can and quietly gives up on the rest.
+     * @param component The problem that was opened.
+     * @param language The currently selected language.
+     * @param log The log to report errors to.
+     */
+    public static void prefetchRound(ProblemComponentModel component, Language language, Log log)
+    {
+        ProblemModel problem = component.getProblem();
+        RoundModel round = problem.getRound();
+
+        Object division = call(ProblemModel.class, problem, "getDivision");
+        String key = round.getContestName() + "/" + division + "/" + language.getName();
+        synchronized (prefetched)
+        {
+            if (!prefetched.add(key)) return;
+        }
+
+        Object problems = division == null ? null : call(RoundModel.class, round, "getProblems", division);
+        if (!(problems instanceof ProblemModel[])) return;
+
+        int count = 0;
+        for (ProblemModel other : (ProblemModel[])problems)
+        {
+            if (other == null || other.getProblemID().equals(problem.getProblemID())) continue;
+            if (Boolean.FALSE.equals(call(ProblemModel.class, other, "hasComponents"))) continue;
+
+            Object components = call(ProblemModel.class, other, "getComponents");
+            if (!(components instanceof ProblemComponentModel[])) continue;
+            for (ProblemComponentModel otherComponent : (ProblemComponentModel[])components)
+            {
+                try
+                {
+                    if (otherComponent == null || otherComponent.getClassName() == null) continue;
+                    Editor.prefetch(otherComponent, language, log);
+                    ++count;
+                }
+                catch (Exception exception)
+                {
+                    // The Arena hasn't loaded this problem; intentionally ignoring exception.
+                }
+            }
+        }
+        if (0 < count) log.info("Preparing " + count + " other problem(s) in the round.");
+    }
+
+
+    /**
+     * Call a method which the Arena may or may not have.
+     * The method is looked up on the public interface rather than the
+     * class of the object, which the Arena doesn't necessarily make public.
+     * @param type The interface the method belongs to.
+     * @param object The object to call the method on.
+     * @param methodName The name of the method.
+     * @param args The arguments to the method.
+     * @return What the method returned, or null if it couldn't be called.
+     */
+    private static <T> Object call(Class<T> type, T object, String methodName, Object... args)
+    {
+        for (Method method : type.getMethods())
+        {
+            if (!method.getName().equals(methodName)) continue;
+            if (method.getParameterTypes().length != args.length) continue;
+            try
+            {
+                return method.invoke(object, args);
+            }
+            catch (Exception exception)
+            {
+                // The method doesn't take these arguments; try the next one.
+            }
+        }
+        return null;
+    }
+}
+
+// vim:et:ts=8:sts=4:sw=4
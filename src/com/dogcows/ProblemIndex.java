@@ -0,0 +1,311 @@
+
+package com.dogcows;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+/**
+ * @author Charles McGarvey
+ * The TopCoder Arena editor plug-in providing support for Vim.
+ * 
+ * Distributable under the terms and conditions of the 2-clause BSD license;
+ * see the file COPYING for a complete text of the license.
+ */
+public abstract class ProblemIndex
+{
+    /**
+     * The name of the index file in the storage directory.
+     */
+    private static final String FILE_NAME = "problems.idx";
+
+    /**
+     * What is known about the files of a problem in one language.
+     */
+    private static class Entry
+    {
+        /**
+         * The path of the problem directory relative to the storage
+         * directory.
+         */
+        String path;
+
+        /**
+         * Map the names of the files to their sizes and modification times
+         * when they were recorded.
+         */
+        Map<String,long[]> files;
+    }
+
+    /**
+     * The storage directory the index was loaded from, or null if it hasn't
+     * been loaded yet.
+     */
+    private static File root;
+
+    /**
+     * Map problem ID numbers and languages to what is known about their
+     * files.
+     */
+    private static final Map<String,Entry> entries = new HashMap<String,Entry>();
+
+    /**
+     * The number of records in the index file.
+     */
+    private static int records = 0;
+
+
+    /**
+     * Get the directory of a problem.
+     * @param id The problem ID number.
+     * @param language The name of the language.
+     * @return The directory, or null if the problem isn't in the index for
+     * the language.
+     */
+    public static synchronized File getDirectory(String id, String language)
+    {
+        Entry entry = load().get(getKey(id, language));
+        return entry != null ? new File(root, entry.path) : null;
+    }
+
+    /**
+     * Get whether or not a file is known to exist because it still has the
+     * size and modification time it was recorded with.  That takes a
+     * single look at the file.  A file which isn't in the index, or which
+     * has changed, may still exist; it just has to be looked for.
+     * @param id The problem ID number.
+     * @param language The name of the language.
+     * @param file The file in the problem directory.
+     * @return True if the file exists as it was recorded, false if we can't
+     * tell.
+     */
+    public static boolean isUnchanged(String id, String language, File file)
+    {
+        long[] state;
+        synchronized (ProblemIndex.class)
+        {
+            Entry entry = load().get(getKey(id, language));
+            if (entry == null || !file.getParentFile().equals(new File(root, entry.path))) return false;
+            state = entry.files.get(file.getName());
+        }
+        if (state == null) return false;
+
+        long[] current = getState(file);
+        return current != null && Arrays.equals(current, state);
+    }
+
+    /**
+     * Record the directory of a problem and the current state of its files.
+     * Files recorded before which aren't given are kept, since they are
+     * checked before they are trusted anyway.  The record is appended to the
+     * index file right away.
+     * @param id The problem ID number.
+     * @param language The name of the language.
+     * @param directory The problem directory, which should be in the
+     * storage directory.
+     * @param files The files in the directory.
+     */
+    public static void put(String id, String language, File directory, Collection<File> files)
+    {
+        Entry entry = new Entry();
+        entry.files = new TreeMap<String,long[]>();
+        for (File file : files)
+        {
+            long[] state = getState(file);
+            if (state != null) entry.files.put(file.getName(), state);
+        }
+
+        synchronized (ProblemIndex.class)
+        {
+            load();
+            entry.path = Util.getRelativePath(root, directory);
+            if (entry.path == null || entry.path.indexOf('\t') != -1) return;
+            String key = getKey(id, language);
+            Entry old = entries.get(key);
+            if (old != null && old.path.equals(entry.path))
+            {
+                for (Map.Entry<String,long[]> file : old.files.entrySet())
+                {
+                    if (!entry.files.containsKey(file.getKey())) entry.files.put(file.getKey(), file.getValue());
+                }
+            }
+            entries.put(key, entry);
+
+            File file = new File(root, FILE_NAME);
+            if (2 * entries.size() + 64 < ++records)
+            {
+                compact(file);
+                return;
+            }
+            try
+            {
+                Writer writer = new OutputStreamWriter(new FileOutputStream(file, true), Util.CHARSET);
+                try
+                {
+                    writeEntry(writer, key, entry);
+                }
+                finally
+                {
+                    writer.close();
+                }
+            }
+            catch (IOException exception)
+            {
+                // The index will be rebuilt as problems are opened; intentionally
+                // ignoring exception.
+            }
+        }
+    }
+
+
+    /**
+     * Load the index of the current storage directory if it isn't loaded
+     * already.
+     * @return The entries of the index.
+     */
+    private static Map<String,Entry> load()
+    {
+        File dir = VimCoder.getStorageDirectory();
+        if (dir.equals(root)) return entries;
+        root = dir;
+        entries.clear();
+        records = 0;
+
+        try
+        {
+            File file = new File(root, FILE_NAME);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file),
+                                                                             Util.CHARSET));
+            try
+            {
+                String line;
+                while ((line = reader.readLine()) != null)
+                {
+                    ++records;
+                    String[] fields = line.split("\t", -1);
+                    if (fields.length < 3 || fields.length % 3 != 0) continue;
+
+                    Entry entry = new Entry();
+                    entry.path = fields[2];
+                    entry.files = new TreeMap<String,long[]>();
+                    try
+                    {
+                        for (int i = 3; i < fields.length; i += 3)
+                        {
+                            long[] state = {Long.parseLong(fields[i + 1]), Long.parseLong(fields[i + 2])};
+                            entry.files.put(fields[i], state);
+                        }
+                    }
+                    catch (NumberFormatException exception)
+                    {
+                        continue;
+                    }
+                    entries.put(getKey(fields[0], fields[1]), entry);
+                }
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        catch (IOException exception)
+        {
+            // There is no index yet; intentionally ignoring exception.
+        }
+        return entries;
+    }
+
+    /**
+     * Rewrite the index file with only the latest record of each problem.
+     * @param file The index file.
+     */
+    private static void compact(File file)
+    {
+        File temp = new File(root, FILE_NAME + ".tmp");
+        try
+        {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), Util.CHARSET));
+            try
+            {
+                for (Map.Entry<String,Entry> entry : entries.entrySet())
+                {
+                    writeEntry(writer, entry.getKey(), entry.getValue());
+                }
+            }
+            finally
+            {
+                writer.close();
+            }
+            if (!temp.renameTo(file))
+            {
+                file.delete();
+                if (!temp.renameTo(file)) throw new IOException(file.getPath());
+            }
+            records = entries.size();
+        }
+        catch (IOException exception)
+        {
+            // The old file still works; intentionally ignoring exception.
+            temp.delete();
+        }
+    }
+
+    /**
+     * Write a record to the index file.
+     * The record has the problem ID number, the language, and the path of
+     * the directory, followed by the name, size and modification time of
+     * each file, all separated by tabs.
+     * @param writer The writer for the index file.
+     * @param key The problem ID number and the language.
+     * @param entry What is known about the files.
+     * @throws IOException If the record could not be written.
+     */
+    private static void writeEntry(Writer writer, String key, Entry entry) throws IOException
+    {
+        StringBuilder record = new StringBuilder(key).append('\t').append(entry.path);
+        for (Map.Entry<String,long[]> file : entry.files.entrySet())
+        {
+            long[] state = file.getValue();
+            record.append('\t').append(file.getKey())
+                  .append('\t').append(state[0])
+                  .append('\t').append(state[1]);
+        }
+        writer.write(record.append(System.getProperty("line.separator")).toString());
+    }
+
+    /**
+     * Get the key of a problem in a language.
+     * @param id The problem ID number.
+     * @param language The name of the language.
+     * @return The key.
+     */
+    private static String getKey(String id, String language)
+    {
+        return id + "\t" + language;
+    }
+
+    /**
+     * Get the size and modification time of a file with a single look at
+     * the file.
+     * @param file The file.
+     * @return The size and the modification time in milliseconds, or null
+     * if the file doesn't exist.
+     */
+    private static long[] getState(File file)
+    {
+        try
+        {
+            BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            if (!attributes.isRegularFile()) return null;
+            long[] state = {attributes.size(), attributes.lastModifiedTime().toMillis()};
+            return state;
+        }
+        catch (IOException exception)
+        {
+            return null;
+        }
+    }
+}
+
+// vim:et:ts=8:sts=4:sw=4
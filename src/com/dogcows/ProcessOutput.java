@@ -0,0 +1,101 @@
+
+package com.dogcows;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+
+/**
+ * @author Charles McGarvey
+ * The TopCoder Arena editor plug-in providing support for Vim.
+ * 
+ * Distributable under the terms and conditions of the 2-clause BSD license;
+ * see the file COPYING for a complete text of the license.
+ */
+public class ProcessOutput
+{
+    /**
+     * The most output read back from the end of the file, in bytes.
+     */
+    private static final int LIMIT = 1024;
+
+
+    /**
+     * The file the process writes its output to.
+     */
+    private final File file;
+
+
+    /**
+     * Send the output of a process to a temporary file.
+     * The process writes straight to the file, so nothing has to read its
+     * output while it runs, however long it (or a child it leaves in the
+     * background, such as a Vim server) keeps the output open.  Standard
+     * error is merged into standard output.  Call {@link #delete()} once
+     * the output is no longer needed.
+     * @param builder The builder of the process, which hasn't been started.
+     * @return The output of the process.
+     * @throws IOException If the file could not be created.
+     */
+    public static ProcessOutput redirect(ProcessBuilder builder) throws IOException
+    {
+        File file = File.createTempFile("vimcoder", ".out");
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(ProcessBuilder.Redirect.appendTo(file));
+        return new ProcessOutput(file);
+    }
+
+
+    /**
+     * Construct the output of a process.
+     * @param file The file the process writes its output to.
+     */
+    private ProcessOutput(File file)
+    {
+        this.file = file;
+    }
+
+    /**
+     * Get what the process has written so far.
+     * Only the end of the file is read.
+     * @return The end of the output, trimmed, or an empty string if it
+     * could not be read.
+     */
+    public String getText()
+    {
+        try
+        {
+            RandomAccessFile in = new RandomAccessFile(file, "r");
+            try
+            {
+                long length = in.length();
+                byte[] buffer = new byte[(int)Math.min(length, LIMIT)];
+                in.seek(length - buffer.length);
+                in.readFully(buffer);
+                String text = new String(buffer, Charset.defaultCharset()).trim();
+                return buffer.length < length ? "..." + text : text;
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch (IOException exception)
+        {
+            return "";
+        }
+    }
+
+    /**
+     * Delete the file.
+     * A process which is still running can keep writing to it on systems
+     * which allow that; otherwise the file is deleted when the Arena exits.
+     */
+    public void delete()
+    {
+        if (!file.delete()) file.deleteOnExit();
+    }
+}
+
+// vim:et:ts=8:sts=4:sw=4
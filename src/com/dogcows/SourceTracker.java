@@ -0,0 +1,328 @@
+
+package com.dogcows;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+
+/**
+ * @author Charles McGarvey
+ * The TopCoder Arena editor plug-in providing support for Vim.
+ * 
+ * Distributable under the terms and conditions of the 2-clause BSD license;
+ * see the file COPYING for a complete text of the license.
+ */
+public class SourceTracker
+{
+    /**
+     * The watch service shared by all trackers (or null if it hasn't been
+     * started yet).
+     */
+    private static WatchService watchService;
+
+    /**
+     * Map the watched directories to the trackers of files in them.
+     */
+    private static final Map<WatchKey,List<SourceTracker>> watched = new HashMap<WatchKey,List<SourceTracker>>();
+
+    /**
+     * Map the tracked files to their trackers.
+     */
+    private static final Map<Path,SourceTracker> trackers = new HashMap<Path,SourceTracker>();
+
+
+    /**
+     * The tracked file.
+     */
+    private final Path path;
+
+    /**
+     * The key for watching the directory of the file.
+     */
+    private final WatchKey key;
+
+    /**
+     * The number of editors using the tracker.
+     */
+    private int users = 0;
+
+    /**
+     * The log to report changes to.
+     */
+    private Log log;
+
+    /**
+     * The contents of the file when it was last loaded.
+     */
+    private String contents;
+
+    /**
+     * The digest of the contents.
+     */
+    private String digest;
+
+    /**
+     * The size of the file when it was last loaded.
+     */
+    private long size;
+
+    /**
+     * The modification time of the file when it was last loaded.
+     */
+    private FileTime lastModified;
+
+    /**
+     * Whether or not the file may have changed since it was last loaded.
+     */
+    private volatile boolean dirty = true;
+
+    /**
+     * The digest of the source last uploaded to the server (or null if
+     * nothing was uploaded yet).
+     */
+    private String uploadedDigest;
+
+    /**
+     * Whether or not the file was already reported as different from the
+     * source last uploaded.
+     */
+    private boolean diverged = false;
+
+
+    /**
+     * Start tracking a file.
+     * The file is loaded in the background every time it is written.  Each
+     * call should be matched with a call to {@link #untrack()} once the
+     * tracker is no longer needed.
+     * @param file The file to track.
+     * @param log The log to report changes to.
+     * @return The tracker for the file.
+     * @throws IOException If the directory of the file can't be watched.
+     */
+    public static SourceTracker track(File file, Log log) throws IOException
+    {
+        Path path = file.toPath().toAbsolutePath();
+        SourceTracker tracker;
+        synchronized (SourceTracker.class)
+        {
+            tracker = trackers.get(path);
+            if (tracker == null)
+            {
+                if (watchService == null) startWatching();
+
+                WatchKey key = path.getParent().register(watchService,
+                                                         StandardWatchEventKinds.ENTRY_CREATE,
+                                                         StandardWatchEventKinds.ENTRY_MODIFY);
+                tracker = new SourceTracker(path, key);
+                List<SourceTracker> list = watched.get(key);
+                if (list == null)
+                {
+                    list = new ArrayList<SourceTracker>();
+                    watched.put(key, list);
+                }
+                list.add(tracker);
+                trackers.put(path, tracker);
+            }
+            ++tracker.users;
+        }
+
+        // The file is read outside of the lock so other editors aren't kept
+        // waiting on the disk.
+        synchronized (tracker)
+        {
+            tracker.log = log;
+        }
+        tracker.reload();
+        return tracker;
+    }
+
+
+    /**
+     * Construct a tracker.
+     * @param path The absolute path of the file to track.
+     * @param key The key for watching the directory of the file.
+     */
+    private SourceTracker(Path path, WatchKey key)
+    {
+        this.path = path;
+        this.key = key;
+    }
+
+    /**
+     * Stop tracking the file.
+     * The directory of the file stops being watched once nothing in it is
+     * tracked.
+     */
+    public void untrack()
+    {
+        synchronized (SourceTracker.class)
+        {
+            if (--users != 0 || trackers.get(path) != this) return;
+            trackers.remove(path);
+            List<SourceTracker> list = watched.get(key);
+            if (list != null)
+            {
+                list.remove(this);
+                if (list.isEmpty())
+                {
+                    watched.remove(key);
+                    key.cancel();
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the contents of the file.
+     * The file is only read if it was changed since it was last loaded and
+     * the background load hasn't happened yet.
+     * @return The contents of the file.
+     * @throws IOException If the file could not be read.
+     */
+    public synchronized String getSource() throws IOException
+    {
+        if (dirty || contents == null) load();
+        else
+        {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            if (attributes.size() != size || !attributes.lastModifiedTime().equals(lastModified)) load();
+        }
+        return contents;
+    }
+
+    /**
+     * Note that source was uploaded to the server.
+     * @param source The source that was uploaded.
+     */
+    public synchronized void uploaded(String source)
+    {
+        uploadedDigest = Util.digest(source);
+        diverged = uploadedDigest != null && !uploadedDigest.equals(digest);
+    }
+
+
+    /**
+     * Note that the file may have changed since it was last loaded.
+     * This doesn't wait for the tracker, which may be reading the file.
+     */
+    private void markDirty()
+    {
+        dirty = true;
+    }
+
+    /**
+     * Load the file, ignoring any problem.
+     */
+    private synchronized void reload()
+    {
+        dirty = true;
+        try
+        {
+            load();
+        }
+        catch (IOException exception)
+        {
+            // The file may be in the middle of being written; we'll try
+            // again when it is read or written again.
+        }
+    }
+
+    /**
+     * Load the file and check it against the source last uploaded.
+     * @throws IOException If the file could not be read.
+     */
+    private synchronized void load() throws IOException
+    {
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        contents = Util.readFile(path.toFile());
+        digest = Util.digest(contents);
+        size = attributes.size();
+        lastModified = attributes.lastModifiedTime();
+        dirty = false;
+
+        if (uploadedDigest != null && !uploadedDigest.equals(digest))
+        {
+            if (!diverged && log != null)
+            {
+                log.info("Source file " + path.getFileName() + " has changed since it was last uploaded.");
+            }
+            diverged = true;
+        }
+        else
+        {
+            diverged = false;
+        }
+    }
+
+
+    /**
+     * Start the thread which loads files as they are written.
+     * @throws IOException If the watch service couldn't be created.
+     */
+    private static void startWatching() throws IOException
+    {
+        watchService = FileSystems.getDefault().newWatchService();
+        Thread thread = Util.daemonThreadFactory("VimCoder source tracker").newThread(new Runnable()
+        {
+            public void run()
+            {
+                watch();
+            }
+        });
+        thread.start();
+    }
+
+    /**
+     * Wait for changes to the watched directories and load the files that
+     * were written.
+     */
+    private static void watch()
+    {
+        for (;;)
+        {
+            WatchKey key;
+            try
+            {
+                key = watchService.take();
+            }
+            catch (InterruptedException exception)
+            {
+                return;
+            }
+            catch (ClosedWatchServiceException exception)
+            {
+                return;
+            }
+
+            List<SourceTracker> changed = new ArrayList<SourceTracker>();
+            synchronized (SourceTracker.class)
+            {
+                List<SourceTracker> list = watched.get(key);
+                if (list != null)
+                {
+                    for (WatchEvent<?> event : key.pollEvents())
+                    {
+                        Object context = event.context();
+                        for (SourceTracker tracker : list)
+                        {
+                            if (event.kind() == StandardWatchEventKinds.OVERFLOW
+                                || tracker.path.getFileName().equals(context))
+                            {
+                                tracker.markDirty();
+                                if (!changed.contains(tracker)) changed.add(tracker);
+                            }
+                        }
+                    }
+                }
+                key.reset();
+            }
+
+            for (SourceTracker tracker : changed) tracker.reload();
+        }
+    }
+}
+
+// vim:et:ts=8:sts=4:sw=4
@@ -0,0 +1,417 @@
+
+package com.dogcows;
+
+import java.io.*;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * @author Charles McGarvey
+ * The TopCoder Arena editor plug-in providing support for Vim.
+ * 
+ * Distributable under the terms and conditions of the 2-clause BSD license;
+ * see the file COPYING for a complete text of the license.
+ */
+public class StatementIndex
+{
+    /**
+     * The name of the index file in the storage directory.
+     */
+    private static final String FILE_NAME = "statements.idx";
+
+    /**
+     * The pattern matching markup and character entities in a problem
+     * statement.
+     */
+    private static final Pattern MARKUP = Pattern.compile("<[^>]*>|&#?[A-Za-z0-9]+;");
+
+    /**
+     * The pattern matching the words of a problem statement.
+     */
+    private static final Pattern WORD = Pattern.compile("[a-z0-9]{2,}");
+
+
+    /**
+     * The index last loaded or saved by {@link #add(File, File, String)},
+     * which is kept so each statement added doesn't read the index again.
+     */
+    private static StatementIndex current;
+
+
+    /**
+     * The storage directory.
+     */
+    private final File root;
+
+    /**
+     * The paths of the problem directories, relative to the storage
+     * directory, by number.
+     */
+    private final List<String> paths = new ArrayList<String>();
+
+    /**
+     * Map the paths of the problem directories to their numbers.
+     */
+    private final Map<String,Integer> numbers = new HashMap<String,Integer>();
+
+    /**
+     * Map words to the numbers of the problem directories whose statements
+     * contain them.
+     */
+    private final TreeMap<String,BitSet> postings = new TreeMap<String,BitSet>();
+
+    /**
+     * The modification time of the index file when it was read or written.
+     */
+    private long lastModified;
+
+    /**
+     * The size of the index file when it was read or written.
+     */
+    private long length;
+
+
+    /**
+     * Add a problem statement to the index in a storage directory.
+     * If the directory was already in the index, the new statement replaces
+     * the old one.  The index file is rewritten with the change.
+     * @param root The storage directory.
+     * @param directory The problem directory.
+     * @param html The problem statement.
+     * @throws IOException If the index file could not be written.
+     */
+    public static synchronized void add(File root, File directory, String html) throws IOException
+    {
+        String path = getPath(root, directory);
+        if (path == null) return;
+
+        if (current == null || !current.isCurrent(root))
+        {
+            try
+            {
+                current = load(root);
+            }
+            catch (FileNotFoundException exception)
+            {
+                // There is no index yet.
+                current = new StatementIndex(root);
+            }
+        }
+        current.put(path, getWords(html));
+        current.save();
+    }
+
+    /**
+     * Index every problem statement in a storage directory, replacing the
+     * index file.
+     * @param root The storage directory.
+     * @return The number of statements indexed.
+     * @throws IOException If the index file could not be written.
+     */
+    public static synchronized int rebuild(File root) throws IOException
+    {
+        List<File> statements = new ArrayList<File>();
+        findStatements(root, statements);
+
+        StatementIndex index = new StatementIndex(root);
+        for (File statement : statements)
+        {
+            String path = getPath(root, statement.getParentFile());
+            if (path != null) index.put(path, getWords(Util.readFile(statement)));
+        }
+        index.save();
+        current = index;
+        return statements.size();
+    }
+
+    /**
+     * Load the index of a storage directory.
+     * The index file has the paths of the problem directories, one per
+     * line, then a blank line, then a line for each word with the word and
+     * the numbers of the directories whose statements contain it.
+     * @param root The storage directory.
+     * @return The index.
+     * @throws IOException If the index file could not be read.
+     */
+    public static StatementIndex load(File root) throws IOException
+    {
+        StatementIndex index = new StatementIndex(root);
+        File file = new File(root, FILE_NAME);
+        index.lastModified = file.lastModified();
+        index.length = file.length();
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), Util.CHARSET));
+        try
+        {
+            String line;
+            while ((line = reader.readLine()) != null && line.length() != 0)
+            {
+                index.numbers.put(line, index.paths.size());
+                index.paths.add(line);
+            }
+            while ((line = reader.readLine()) != null)
+            {
+                int tab = line.indexOf('\t');
+                if (tab == -1) continue;
+                BitSet set = new BitSet(index.paths.size());
+                int number = -1;
+                for (int i = tab + 1; i <= line.length(); ++i)
+                {
+                    char c = i < line.length() ? line.charAt(i) : ' ';
+                    if ('0' <= c && c <= '9')
+                    {
+                        number = (number < 0 ? 0 : 10 * number) + (c - '0');
+                    }
+                    else
+                    {
+                        if (0 <= number && number < index.paths.size()) set.set(number);
+                        number = -1;
+                    }
+                }
+                if (!set.isEmpty()) index.postings.put(line.substring(0, tab), set);
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+        return index;
+    }
+
+
+    /**
+     * Construct an empty index.
+     * @param root The storage directory.
+     */
+    private StatementIndex(File root)
+    {
+        this.root = root;
+    }
+
+    /**
+     * Find the problems whose statements contain all of the query words.
+     * A query word ending with an asterisk matches any word which starts
+     * with it.
+     * @param query The query words.
+     * @return The matching problem directories, sorted by path.
+     */
+    public List<File> search(String[] query)
+    {
+        BitSet matches = null;
+        for (String term : query)
+        {
+            BitSet set = new BitSet(paths.size());
+            String prefix = term.toLowerCase(Locale.ENGLISH);
+            if (prefix.endsWith("*"))
+            {
+                prefix = prefix.substring(0, prefix.length() - 1);
+                for (BitSet posting : postings.subMap(prefix, prefix + Character.MAX_VALUE).values())
+                {
+                    set.or(posting);
+                }
+            }
+            else
+            {
+                BitSet posting = postings.get(prefix);
+                if (posting != null) set.or(posting);
+            }
+
+            if (matches == null) matches = set;
+            else matches.and(set);
+        }
+
+        Set<String> matchingPaths = new TreeSet<String>();
+        if (matches != null)
+        {
+            for (int i = matches.nextSetBit(0); i != -1; i = matches.nextSetBit(i + 1))
+            {
+                matchingPaths.add(paths.get(i));
+            }
+        }
+        List<File> directories = new ArrayList<File>();
+        for (String path : matchingPaths) directories.add(new File(root, path));
+        return directories;
+    }
+
+
+    /**
+     * Get whether or not this is the index of a storage directory, and its
+     * file hasn't been changed by anything else since it was read.
+     * @param dir The storage directory.
+     * @return True if the index is up to date.
+     */
+    private boolean isCurrent(File dir)
+    {
+        File file = new File(root, FILE_NAME);
+        return root.equals(dir) && file.lastModified() == lastModified && file.length() == length;
+    }
+
+    /**
+     * Set the words of the statement of a problem directory, replacing the
+     * words it had before.
+     * @param path The path of the problem directory.
+     * @param words The words of the statement.
+     */
+    private void put(String path, Set<String> words)
+    {
+        Integer number = numbers.get(path);
+        if (number == null)
+        {
+            number = paths.size();
+            numbers.put(path, number);
+            paths.add(path);
+        }
+        else
+        {
+            Iterator<BitSet> it = postings.values().iterator();
+            while (it.hasNext())
+            {
+                BitSet set = it.next();
+                set.clear(number);
+                if (set.isEmpty()) it.remove();
+            }
+        }
+
+        for (String word : words)
+        {
+            BitSet set = postings.get(word);
+            if (set == null)
+            {
+                set = new BitSet();
+                postings.put(word, set);
+            }
+            set.set(number);
+        }
+    }
+
+    /**
+     * Write the index file, replacing it.
+     * @throws IOException If the index file could not be written.
+     */
+    private void save() throws IOException
+    {
+        String newline = System.getProperty("line.separator");
+        File temp = new File(root, FILE_NAME + ".tmp");
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), Util.CHARSET));
+        try
+        {
+            for (String path : paths) writer.write(path + newline);
+            writer.write(newline);
+            for (Map.Entry<String,BitSet> posting : postings.entrySet())
+            {
+                writer.write(posting.getKey());
+                char separator = '\t';
+                BitSet set = posting.getValue();
+                for (int i = set.nextSetBit(0); i != -1; i = set.nextSetBit(i + 1))
+                {
+                    writer.write(separator);
+                    writer.write(String.valueOf(i));
+                    separator = ' ';
+                }
+                writer.write(newline);
+            }
+        }
+        finally
+        {
+            writer.close();
+        }
+
+        File file = new File(root, FILE_NAME);
+        if (!temp.renameTo(file))
+        {
+            file.delete();
+            if (!temp.renameTo(file)) throw new IOException(file.getPath());
+        }
+        lastModified = file.lastModified();
+        length = file.length();
+    }
+
+
+    /**
+     * Search the statement index from the command line.
+     * The matching problem directories are printed one per line.
+     * @param args The query words, optionally preceded by "-d" and the
+     * storage directory or "--rebuild" to index every problem statement.
+     */
+    public static void main(String[] args)
+    {
+        File root = new File(System.getProperty("user.home"), ".vimcoder");
+        boolean rebuild = false;
+        int i = 0;
+        for (; i < args.length; ++i)
+        {
+            if (args[i].equals("-d") && i + 1 < args.length) root = new File(args[++i]);
+            else if (args[i].equals("--rebuild")) rebuild = true;
+            else break;
+        }
+        String[] query = Arrays.copyOfRange(args, i, args.length);
+        if (!rebuild && query.length == 0)
+        {
+            System.err.println("Usage: java -cp VimCoder.jar com.dogcows.StatementIndex [-d DIR] [--rebuild] [WORD...]");
+            System.exit(2);
+        }
+
+        try
+        {
+            if (rebuild) System.err.println("Indexed " + rebuild(root) + " problem statement(s).");
+            if (query.length == 0) return;
+
+            List<File> directories = load(root).search(query);
+            for (File directory : directories) System.out.println(directory.getPath());
+            if (directories.isEmpty()) System.exit(1);
+        }
+        catch (IOException exception)
+        {
+            System.err.println("Failed to read the statement index: " + exception.getLocalizedMessage());
+            System.exit(2);
+        }
+    }
+
+
+    /**
+     * Get the distinct words of a problem statement.
+     * @param html The problem statement.
+     * @return The words, in lowercase.
+     */
+    private static Set<String> getWords(String html)
+    {
+        String text = MARKUP.matcher(html).replaceAll(" ").toLowerCase(Locale.ENGLISH);
+        Set<String> words = new TreeSet<String>();
+        Matcher matcher = WORD.matcher(text);
+        while (matcher.find()) words.add(matcher.group());
+        return words;
+    }
+
+    /**
+     * Find the problem statements in a directory and its subdirectories.
+     * @param directory The directory to look in.
+     * @param statements The list to add the statements to.
+     */
+    private static void findStatements(File directory, List<File> statements)
+    {
+        File[] files = directory.listFiles();
+        if (files == null) return;
+        for (File file : files)
+        {
+            if (file.isDirectory()) findStatements(file, statements);
+            else if (file.getName().equals("Problem.html")) statements.add(file);
+        }
+    }
+
+    /**
+     * Get the path of a problem directory as it is kept in the index.
+     * @param root The storage directory.
+     * @param directory The problem directory.
+     * @return The path relative to the storage directory, or null if the
+     * directory isn't in the storage directory or the path can't be kept.
+     */
+    private static String getPath(File root, File directory)
+    {
+        String path = Util.getRelativePath(root, directory);
+        if (path == null || path.length() == 0 || path.indexOf('\n') != -1 || path.indexOf('\r') != -1) return null;
+        return path;
+    }
+}
+
+// vim:et:ts=8:sts=4:sw=4
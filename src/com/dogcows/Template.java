@@ -0,0 +1,155 @@
+
+package com.dogcows;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author Charles McGarvey
+ * The TopCoder Arena editor plug-in providing support for Vim.
+ * 
+ * Distributable under the terms and conditions of the 2-clause BSD license;
+ * see the file COPYING for a complete text of the license.
+ */
+public class Template
+{
+    /**
+     * The text between the dollar signs of the template, one more than the
+     * number of dollar signs.
+     */
+    private final String[] pieces;
+
+    /**
+     * Whether or not each piece could be the name of a term, which it can
+     * be if it is a valid name and there is a dollar sign after it.
+     */
+    private final boolean[] names;
+
+    /**
+     * The length of the template.
+     */
+    private final int length;
+
+    /**
+     * The template encoded as UTF-8, or null if it hasn't been needed yet.
+     */
+    private byte[] bytes;
+
+
+    /**
+     * Compile a template.
+     * Terms in the template should appear surrounded with dollar signs,
+     * and term names may only contain letters, digits, and underscores.
+     * Dollar signs which are not part of a term are kept as they are.
+     * @param template The template string.
+     */
+    public Template(String template)
+    {
+        List<String> pieces = new ArrayList<String>();
+        int start = 0;
+        int dollar = template.indexOf('$');
+        while (dollar != -1)
+        {
+            pieces.add(template.substring(start, dollar));
+            start = dollar + 1;
+            dollar = template.indexOf('$', start);
+        }
+        pieces.add(template.substring(start));
+
+        this.pieces = pieces.toArray(new String[pieces.size()]);
+        this.names = new boolean[this.pieces.length];
+        for (int i = 1; i + 1 < this.pieces.length; ++i)
+        {
+            this.names[i] = isName(this.pieces[i]);
+        }
+        this.length = template.length();
+    }
+
+    /**
+     * Get whether or not the template has any terms to expand.
+     * @return True if the template contains at least one term.
+     */
+    public boolean hasTerms()
+    {
+        for (boolean name : names)
+        {
+            if (name) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Build the result with the terms expanded into the template.
+     * If $MYTERM$ appears in the template, it will be replaced by the value
+     * in the terms map with the key MYTERM.  Terms which are not in the map
+     * are left as they are, and their closing dollar sign may start another
+     * term, so "$FOO$MYTERM$" still has MYTERM expanded.
+     * @param terms A map of key/value terms.
+     * @return The string expanded from the template and terms.
+     */
+    public String expand(Map<String,String> terms)
+    {
+        StringBuilder text = new StringBuilder(length + 64);
+        text.append(pieces[0]);
+        int i = 1;
+        while (i < pieces.length)
+        {
+            String value = names[i] ? terms.get(pieces[i]) : null;
+            if (value != null)
+            {
+                // The dollar sign after the term closes it.
+                text.append(value).append(pieces[i + 1]);
+                i += 2;
+            }
+            else
+            {
+                text.append('$').append(pieces[i]);
+                i += 1;
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Get the template encoded as UTF-8, which for a template without terms
+     * is what expanding it gives.  The template is only encoded the first
+     * time, so the bytes must not be modified.
+     * @return The encoded template.
+     */
+    public synchronized byte[] getBytes()
+    {
+        if (bytes == null) bytes = expand(Collections.<String,String>emptyMap()).getBytes(Util.CHARSET);
+        return bytes;
+    }
+
+
+    /**
+     * Get whether or not a string is a valid term name.
+     * @param name The string.
+     * @return True if the string is not empty and all of its characters
+     * are allowed in a term name.
+     */
+    private static boolean isName(String name)
+    {
+        if (name.length() == 0) return false;
+        for (int i = 0; i < name.length(); ++i)
+        {
+            if (!isNameChar(name.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Get whether or not a character may appear in the name of a term.
+     * @param c The character.
+     * @return True if the character is allowed in a term name.
+     */
+    private static boolean isNameChar(char c)
+    {
+        return ('A' <= c && c <= 'Z') || ('a' <= c && c <= 'z') || ('0' <= c && c <= '9') || c == '_';
+    }
+}
+
+// vim:et:ts=8:sts=4:sw=4
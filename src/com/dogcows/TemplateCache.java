@@ -0,0 +1,98 @@
+
+package com.dogcows;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @author Charles McGarvey
+ * The TopCoder Arena editor plug-in providing support for Vim.
+ * 
+ * Distributable under the terms and conditions of the 2-clause BSD license;
+ * see the file COPYING for a complete text of the license.
+ */
+public abstract class TemplateCache
+{
+    /**
+     * A compiled template and where it was loaded from.
+     */
+    private static class Entry
+    {
+        /**
+         * The file the template was read from, or null for a resource.
+         */
+        File file;
+
+        /**
+         * The modification time of the file when it was read.
+         */
+        long lastModified;
+
+        /**
+         * The length of the file when it was read.
+         */
+        long length;
+
+        /**
+         * The compiled template.
+         */
+        Template template;
+    }
+
+    /**
+     * Map template names to the templates last loaded.
+     */
+    private static final Map<String,Entry> entries = new HashMap<String,Entry>();
+
+
+    /**
+     * Get a template.
+     * We first look in the storage directory.  If we can't find one, we
+     * look among the resources.  Templates are only read again if the file
+     * in the storage directory has been added, removed, or modified since
+     * the template was last loaded.
+     * @param name The name of the template.
+     * @return The template, which may be empty if none could be read.
+     */
+    public static synchronized Template get(String name)
+    {
+        File file = new File(VimCoder.getStorageDirectory(), name);
+        long lastModified = file.lastModified();
+        long length = lastModified != 0L ? file.length() : 0L;
+
+        Entry entry = entries.get(name);
+        if (entry != null)
+        {
+            if (lastModified == 0L && entry.file == null) return entry.template;
+            if (file.equals(entry.file) && lastModified == entry.lastModified
+                && length == entry.length) return entry.template;
+        }
+
+        entry = new Entry();
+        try
+        {
+            if (lastModified != 0L && file.canRead())
+            {
+                entry.file = file;
+                entry.lastModified = lastModified;
+                entry.length = length;
+                entry.template = new Template(Util.readFile(file));
+            }
+            else
+            {
+                entry.template = new Template(Util.readResource(name));
+            }
+        }
+        catch (IOException exception)
+        {
+            // Don't remember the failure so that the next call tries again.
+            return new Template("");
+        }
+        entries.put(name, entry);
+        return entry.template;
+    }
+}
+
+// vim:et:ts=8:sts=4:sw=4
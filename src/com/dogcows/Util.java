@@ -2,8 +2,21 @@
 package com.dogcows;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * @author Charles McGarvey
@@ -73,66 +86,320 @@ public abstract class Util
         return a;
     }
 
+    /**
+     * Compute a digest of a string, suitable for telling whether two strings
+     * are the same without keeping both around.
+     * @param text The string.
+     * @return The SHA-1 digest of the string as hexadecimal digits.
+     */
+    public static String digest(String text)
+    {
+        try
+        {
+            byte[] bytes = MessageDigest.getInstance("SHA-1").digest(text.getBytes(CHARSET));
+            StringBuilder result = new StringBuilder(2 * bytes.length);
+            for (byte b : bytes)
+            {
+                result.append(Character.forDigit((b >> 4) & 0xF, 16))
+                      .append(Character.forDigit(b & 0xF, 16));
+            }
+            return result.toString();
+        }
+        catch (NoSuchAlgorithmException exception)
+        {
+            // Every Java platform is required to support SHA-1.
+            throw new RuntimeException(exception);
+        }
+    }
+
+    /**
+     * Get the path of a file relative to a directory it is in.
+     * @param directory The directory.
+     * @param file The file, which may be in a subdirectory.
+     * @return The relative path, or null if the file isn't in the
+     * directory.
+     */
+    public static String getRelativePath(File directory, File file)
+    {
+        String path = file.getPath();
+        String prefix = directory.getPath() + File.separator;
+        return path.startsWith(prefix) ? path.substring(prefix.length()) : null;
+    }
+
+    /**
+     * Create a factory for daemon threads, which won't keep the Arena
+     * running after it has been closed.
+     * @param name The name given to the threads.
+     * @return The thread factory.
+     */
+    public static ThreadFactory daemonThreadFactory(final String name)
+    {
+        return new ThreadFactory()
+        {
+            public Thread newThread(Runnable task)
+            {
+                Thread thread = new Thread(task, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * The character encoding of files we read and write.
+     */
+    public static final Charset CHARSET = Charset.forName("UTF-8");
+
+    /**
+     * The contents of a file and the attributes it had when it was read.
+     */
+    private static class CachedFile
+    {
+        /**
+         * The modification time of the file.
+         */
+        FileTime lastModified;
+
+        /**
+         * The size of the file in bytes.
+         */
+        long size;
+
+        /**
+         * The time the file was read, in milliseconds.
+         */
+        long readTime;
+
+        /**
+         * The contents of the file.
+         */
+        String text;
+    }
+
+    /**
+     * The number of files to keep the contents of.
+     */
+    private static final int FILE_CACHE_SIZE = 16;
+
+    /**
+     * Map paths to the contents of recently read files.
+     */
+    private static final Map<Path,CachedFile> fileCache =
+        new LinkedHashMap<Path,CachedFile>(FILE_CACHE_SIZE, 0.75f, true)
+        {
+            protected boolean removeEldestEntry(Map.Entry<Path,CachedFile> eldest)
+            {
+                return FILE_CACHE_SIZE < size();
+            }
+        };
+
+    /**
+     * The number of milliseconds a file has to be older than when it was
+     * read for the contents to be reused.  File systems may only store
+     * modification times to the second, so a file changed right after it
+     * was read could otherwise look unchanged.
+     */
+    private static final long FILE_CACHE_SLACK = 2000;
+
+
     /**
      * Simply read a file's contents into a string object.
+     * Every line, including the last, ends with the line separator.  Files
+     * are decoded as UTF-8 unless they aren't valid UTF-8, in which case
+     * they are decoded with the default charset of the platform.  The
+     * contents are reused if the file has the same size and modification
+     * time as when it was last read.
      * @param file The file to read.
      * @return The contents of the file.
      * @throws IOException If the file is not readable.
      */
     public static String readFile(File file) throws IOException
     {
-        StringBuilder text = new StringBuilder();
+        Path path = file.toPath().toAbsolutePath();
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+
+        synchronized (fileCache)
+        {
+            CachedFile cached = fileCache.get(path);
+            if (cached != null && cached.size == attributes.size()
+                && cached.lastModified.equals(attributes.lastModifiedTime())
+                && attributes.lastModifiedTime().toMillis() + FILE_CACHE_SLACK <= cached.readTime)
+            {
+                return cached.text;
+            }
+        }
+
+        CachedFile cached = new CachedFile();
+        cached.readTime = System.currentTimeMillis();
+        cached.text = normalizeLines(decode(Files.readAllBytes(path)), true);
+        cached.size = attributes.size();
+        cached.lastModified = attributes.lastModifiedTime();
 
-        BufferedReader reader = new BufferedReader(new FileReader(file.getPath()));
+        synchronized (fileCache)
+        {
+            fileCache.put(path, cached);
+        }
+        return cached.text;
+    }
+
+    /**
+     * Decode the contents of a file as UTF-8, or with the default charset
+     * of the platform if they are not valid UTF-8.
+     * @param bytes The contents of the file.
+     * @return The decoded contents.
+     */
+    private static String decode(byte[] bytes)
+    {
         try
         {
-            String line = null;
+            return CHARSET.newDecoder()
+                          .onMalformedInput(CodingErrorAction.REPORT)
+                          .onUnmappableCharacter(CodingErrorAction.REPORT)
+                          .decode(ByteBuffer.wrap(bytes)).toString();
+        }
+        catch (CharacterCodingException exception)
+        {
+            // Probably written in the platform charset, as files used to be.
+            return new String(bytes, Charset.defaultCharset());
+        }
+    }
 
-            while ((line = reader.readLine()) != null)
+    /**
+     * Replace the line endings in a string with the line separator of the
+     * platform.  Lines may end in either CR, LF, or CRLF.
+     * @param text The string.
+     * @param terminate Whether or not to add a line separator after the
+     * last line if it doesn't already end with one.
+     * @return The string with the line endings replaced.
+     */
+    public static String normalizeLines(String text, boolean terminate)
+    {
+        String separator = System.getProperty("line.separator");
+        StringBuilder result = new StringBuilder(text.length() + text.length() / 32 + separator.length());
+
+        int start = 0;
+        int length = text.length();
+        for (int i = 0; i < length; ++i)
+        {
+            char c = text.charAt(i);
+            if (c == '\r' || c == '\n')
             {
-                text.append(line + System.getProperty("line.separator"));
+                result.append(text, start, i).append(separator);
+                if (c == '\r' && i + 1 < length && text.charAt(i + 1) == '\n') ++i;
+                start = i + 1;
             }
         }
+        result.append(text, start, length);
+        if (terminate && start < length) result.append(separator);
+        return result.toString();
+    }
+
+    /**
+     * Write a string to a file, replacing its contents.
+     * @param file The file to write.
+     * @param text The new contents of the file.
+     * @throws IOException If the file is not writable.
+     */
+    public static void writeFile(File file, String text) throws IOException
+    {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), CHARSET);
+        try
+        {
+            writer.write(text);
+        }
         finally
         {
-            reader.close();
+            writer.close();
         }
+    }
 
-        return text.toString();
+    /**
+     * Write bytes to a file, replacing its contents.
+     * @param file The file to write.
+     * @param bytes The new contents of the file.
+     * @throws IOException If the file is not writable.
+     */
+    public static void writeFile(File file, byte[] bytes) throws IOException
+    {
+        OutputStream out = new FileOutputStream(file);
+        try
+        {
+            out.write(bytes);
+        }
+        finally
+        {
+            out.close();
+        }
     }
 
     /**
      * Read a resource file into a string object.
      * The resources should be placed in the directory `resources'
      * underneath the parent directory of this class.  Reading resources
-     * packaged in a jar is allowable.
+     * packaged in a jar is allowable.  Resources are decoded as UTF-8, and
+     * their line endings are replaced with the line separator of the
+     * platform.
      * @param path Relative path to the resource.
      * @return The contents of the resource.
      * @throws IOException If the resource is not readable.
      */
     public static String readResource(String path) throws IOException
     {
-        StringBuilder text = new StringBuilder();
+        StringWriter text = new StringWriter();
 
         InputStream stream = Util.class.getResourceAsStream("resources/" + path);
         if (stream != null)
         {
+            Reader reader = Channels.newReader(Channels.newChannel(stream), CHARSET.newDecoder(), -1);
             try
             {
-                byte[]  buffer = new byte[4096];
-                int     numBytes = 0;
-                while (0 < (numBytes = stream.read(buffer)))
-                {
-                    text.append(new String(buffer, 0, numBytes));
-                }
+                copyLines(reader, text);
             }
             finally
             {
-                stream.close();
+                reader.close();
             }
         }
 
-        return text.toString().replaceAll("\n", System.getProperty("line.separator"));
+        return text.toString();
+    }
+
+    /**
+     * Copy text, replacing its line endings with the line separator of the
+     * platform.  Lines may end in either CR, LF, or CRLF.
+     * @param reader The text to copy.
+     * @param writer Where to copy the text to.
+     * @throws IOException If the text could not be read or written.
+     */
+    private static void copyLines(Reader reader, Writer writer) throws IOException
+    {
+        String separator = System.getProperty("line.separator");
+        char[] buffer = new char[4096];
+        boolean afterCR = false;
+        int count;
+        while (0 <= (count = reader.read(buffer)))
+        {
+            int start = 0;
+            for (int i = 0; i < count; ++i)
+            {
+                char c = buffer[i];
+                if (c == '\n' && afterCR)
+                {
+                    // The rest of a CRLF, which may have been split between reads.
+                    start = i + 1;
+                    afterCR = false;
+                    continue;
+                }
+                afterCR = c == '\r';
+                if (afterCR || c == '\n')
+                {
+                    writer.write(buffer, start, i - start);
+                    writer.write(separator);
+                    start = i + 1;
+                }
+            }
+            writer.write(buffer, start, count - start);
+        }
     }
 
     /**
@@ -142,18 +409,15 @@ public abstract class Util
      * appear surrounded with dollar signs. For example, if $MYTERM$
      * appears in the template, it will be replaced by the value into the
      * terms map with the key MYTERM (if it exists in the map).
+     * Use a {@link Template} directly to expand the same template more
+     * than once without parsing it again.
      * @param template The template string.
      * @param terms A map of key/value terms.
      * @return The string expanded from the template and terms.
      */
     public static String expandTemplate(String template, Map<String,String> terms)
     {
-        String text = template;
-        for (String key : terms.keySet())
-        {
-            text = text.replaceAll("\\$" + key + "\\$", Util.escape(terms.get(key)));
-        }
-        return text;
+        return new Template(template).expand(terms);
     }
 }
 
@@ -0,0 +1,265 @@
+
+package com.dogcows;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @author Charles McGarvey
+ * The TopCoder Arena editor plug-in providing support for Vim.
+ * 
+ * Distributable under the terms and conditions of the 2-clause BSD license;
+ * see the file COPYING for a complete text of the license.
+ */
+public class VimChannel
+{
+    /**
+     * Map Vim server names to their channels.
+     */
+    private static final Map<String,VimChannel> channels = new HashMap<String,VimChannel>();
+
+    /**
+     * The socket Vim connects to.
+     */
+    private final ServerSocket serverSocket;
+
+    /**
+     * The connection to Vim (or null if Vim is not connected).
+     */
+    private Socket socket;
+
+    /**
+     * The writer for sending messages to Vim.
+     */
+    private Writer writer;
+
+    /**
+     * The name of the Vim server.
+     */
+    private final String serverName;
+
+    /**
+     * The number of editors using the channel.
+     */
+    private int users = 0;
+
+
+    /**
+     * Get the channel for a Vim server, opening it if necessary.
+     * Each call should be matched with a call to {@link #release()} once
+     * the channel is no longer needed.
+     * @param serverName The name of the Vim server.
+     * @return The channel.
+     * @throws IOException If the channel could not be opened.
+     */
+    public static synchronized VimChannel get(String serverName) throws IOException
+    {
+        VimChannel channel = channels.get(serverName);
+        if (channel == null)
+        {
+            channel = new VimChannel(serverName);
+            channels.put(serverName, channel);
+        }
+        ++channel.users;
+        return channel;
+    }
+
+
+    /**
+     * Open a channel and start listening for Vim to connect.
+     * @param serverName The name of the Vim server.
+     * @throws IOException If the socket could not be opened.
+     */
+    private VimChannel(String serverName) throws IOException
+    {
+        this.serverName = serverName;
+        serverSocket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+
+        Thread thread = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                listen();
+            }
+        }, "VimCoder channel " + serverName);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Get the Ex command which makes a Vim server connect to this channel.
+     * Vims built without channel support will simply not connect.
+     * @return The Ex command.
+     */
+    public String getConnectCommand()
+    {
+        return "if has('channel') | let g:vimcoder_channel = ch_open('127.0.0.1:"
+            + serverSocket.getLocalPort() + "', {'mode': 'json'}) | endif";
+    }
+
+    /**
+     * Get whether or not a Vim server is connected to the channel.
+     * @return True if messages can be sent.
+     */
+    public synchronized boolean isConnected()
+    {
+        return socket != null;
+    }
+
+    /**
+     * Have the connected Vim server execute an Ex command.
+     * @param command The Ex command.
+     * @return True if the command was sent, false if no Vim server is
+     * connected.
+     */
+    public synchronized boolean send(String command)
+    {
+        if (socket == null) return false;
+        try
+        {
+            writer.write("[\"ex\"," + quote(command) + "]\n");
+            writer.flush();
+            return true;
+        }
+        catch (IOException exception)
+        {
+            disconnect(socket);
+            return false;
+        }
+    }
+
+
+    /**
+     * Stop using the channel, closing it if nothing else is using it.
+     */
+    public void release()
+    {
+        synchronized (VimChannel.class)
+        {
+            if (0 < --users) return;
+        }
+        close();
+    }
+
+    /**
+     * Close the channel, disconnecting the Vim server if it is connected.
+     * The next call to {@link #get(String)} for the same server opens a
+     * new channel.
+     */
+    public void close()
+    {
+        synchronized (VimChannel.class)
+        {
+            if (channels.get(serverName) == this) channels.remove(serverName);
+        }
+        synchronized (this)
+        {
+            try
+            {
+                serverSocket.close();
+            }
+            catch (IOException exception)
+            {
+                // Nothing else can be done; intentionally ignoring exception.
+            }
+            if (socket != null) disconnect(socket);
+        }
+    }
+
+
+    /**
+     * Encode a string as a JSON string, with the quotation marks.
+     * @param text The string.
+     * @return The JSON string.
+     */
+    private static String quote(String text)
+    {
+        StringBuilder json = new StringBuilder(text.length() + 2);
+        json.append('"');
+        for (int i = 0; i < text.length(); ++i)
+        {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') json.append('\\').append(c);
+            else if (c < 0x20) json.append(String.format("\\u%04x", (int)c));
+            else json.append(c);
+        }
+        return json.append('"').toString();
+    }
+
+    /**
+     * Accept connections from Vim until the channel is closed.
+     * Vim does not send anything we need, so input is read and discarded
+     * until the connection is closed.
+     */
+    private void listen()
+    {
+        byte[] buffer = new byte[4096];
+        for (;;)
+        {
+            Socket client;
+            try
+            {
+                client = serverSocket.accept();
+                synchronized (this)
+                {
+                    if (serverSocket.isClosed())
+                    {
+                        client.close();
+                        return;
+                    }
+                    if (socket != null) disconnect(socket);
+                    socket = client;
+                    writer = new BufferedWriter(new OutputStreamWriter(client.getOutputStream(),
+                                                                       Charset.forName("UTF-8")));
+                }
+            }
+            catch (IOException exception)
+            {
+                // The channel was closed.
+                return;
+            }
+
+            try
+            {
+                InputStream input = client.getInputStream();
+                while (0 <= input.read(buffer));
+            }
+            catch (IOException exception)
+            {
+                // The connection was closed; intentionally ignoring exception.
+            }
+            synchronized (this)
+            {
+                if (socket == client) disconnect(client);
+            }
+        }
+    }
+
+    /**
+     * Close the connection to Vim.
+     * @param client The connection to close.
+     */
+    private synchronized void disconnect(Socket client)
+    {
+        try
+        {
+            client.close();
+        }
+        catch (IOException exception)
+        {
+            // Nothing else can be done; intentionally ignoring exception.
+        }
+        if (socket == client)
+        {
+            socket = null;
+            writer = null;
+        }
+    }
+}
+
+// vim:et:ts=8:sts=4:sw=4
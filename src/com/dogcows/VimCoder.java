@@ -6,8 +6,11 @@ import java.awt.event.*;
 import java.io.*;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import javax.swing.*;
 import javax.swing.border.*;
+import javax.swing.text.BadLocationException;
 
 import com.topcoder.client.contestApplet.common.Common;
 import com.topcoder.client.contestApplet.common.LocalPreferences;
@@ -54,6 +57,12 @@ public class VimCoder
      */
     private static boolean contestDirNames = false;
 
+    /**
+     * Whether or not to write an index of where each test case starts in
+     * the test case file.
+     */
+    private static boolean testcaseIndex = false;
+
 
     /**
      * The panel given to the Arena applet when it is requested.
@@ -65,16 +74,97 @@ public class VimCoder
      */
     private JTextArea logArea;
 
+    /**
+     * The maximum number of lines kept in the log widget.
+     */
+    private static final int MAX_LOG_LINES = 1000;
+
+    /**
+     * Log messages waiting to be appended to the text widget.
+     */
+    private final Queue<String> logQueue = new ConcurrentLinkedQueue<String>();
+
+    /**
+     * Whether or not the queued log messages are already going to be
+     * appended.
+     */
+    private final AtomicBoolean logScheduled = new AtomicBoolean(false);
+
+    /**
+     * The task which appends the queued log messages.
+     */
+    private final Runnable logTask = new Runnable()
+    {
+        public void run()
+        {
+            flushLog();
+        }
+    };
+
+    /**
+     * The file where the full history of log messages is kept.
+     */
+    private final LogFile logFile = new LogFile("vimcoder.log");
+
+    /**
+     * The format of timestamps in the log, one for each thread since the
+     * format object isn't thread-safe.
+     */
+    private static final ThreadLocal<SimpleDateFormat> timeFormat = new ThreadLocal<SimpleDateFormat>()
+    {
+        protected SimpleDateFormat initialValue()
+        {
+            return new SimpleDateFormat("kk:mm:ss");
+        }
+    };
+
     /**
      * The current editor object (or null if there is none).
      */
     private Editor editor;
 
+    /**
+     * The maximum number of editor objects kept for switching back to.
+     */
+    private static final int MAX_EDITORS = 8;
+
+    /**
+     * The editor objects of the problems opened recently, keyed by problem
+     * ID and language, in order of use.
+     */
+    private final Map<String,Editor> editors = new LinkedHashMap<String,Editor>(16, 0.75f, true)
+    {
+        private static final long serialVersionUID = 1L;
+
+        protected boolean removeEldestEntry(Map.Entry<String,Editor> eldest)
+        {
+            if (size() <= MAX_EDITORS) return false;
+            eldest.getValue().dispose();
+            return true;
+        }
+    };
+
     /**
      * The configuration panel.
      */
     private JDialog configDialog;
 
+    /**
+     * The log given to the editor objects, which writes to the text area.
+     */
+    private final Log log = new Log()
+    {
+        public void info(String what)
+        {
+            logInfo(what);
+        }
+
+        public void error(String what)
+        {
+            logError(what);
+        }
+    };
+
 
     /**
      * The key for the vim command preference.
@@ -91,6 +181,11 @@ public class VimCoder
      */
     private final static String CONTESTDIRNAMES = "com.dogcows.VimCoder.config.contestdirnames";
 
+    /**
+     * The key for the test case index preference.
+     */
+    private final static String TESTCASEINDEX = "com.dogcows.VimCoder.config.testcaseindex";
+
     /**
      * The preferences object for storing plugin settings.
      */
@@ -125,6 +220,15 @@ public class VimCoder
         return contestDirNames;
     }
 
+    /**
+     * Get whether or not to write an index of the test case file.
+     * @return The test case index setting.
+     */
+    public static boolean isTestcaseIndex()
+    {
+        return testcaseIndex;
+    }
+
 
     /**
      * Instantiate the entry point of the editor plugin.
@@ -173,6 +277,8 @@ public class VimCoder
     public void stopUsing()
     {
         editor = null;
+        for (Editor cached : editors.values()) cached.dispose();
+        editors.clear();
     }
 
     /**
@@ -235,13 +341,33 @@ public class VimCoder
     public void setProblemComponent(ProblemComponentModel component,
                     Language language, Renderer renderer)
     {
+        String key = component.getProblem().getProblemID() + "/" + language.getName();
+        Editor cached = editors.get(key);
+        if (cached != null && cached.isUsable())
+        {
+            editor = cached;
+            return;
+        }
+        if (cached != null) cached.dispose();
+
         try
         {
-            editor = new Editor(component, language, renderer);
+            editor = new Editor(component, language, renderer, log);
+            editors.put(key, editor);
         }
         catch (Exception exception)
         {
             logError("An error occurred while loading the problem: " + exception.getLocalizedMessage());
+            return;
+        }
+
+        try
+        {
+            Prefetcher.prefetchRound(component, language, log);
+        }
+        catch (Exception exception)
+        {
+            logError("Failed to prepare the other problems in the round: " + exception.getLocalizedMessage());
         }
     }
 
@@ -323,6 +449,19 @@ public class VimCoder
         c.gridwidth = 2;
         fieldPanel.add(vimCommandField, c);
 
+        final JCheckBox testcaseIndexButton = new JCheckBox(
+            "Write an index of where each test case starts in testcases.txt.",
+            testcaseIndex
+        );
+        testcaseIndexButton.setForeground(Common.FG_COLOR);
+        testcaseIndexButton.setBackground(Common.WPB_COLOR);
+        testcaseIndexButton.setFont(rootDirLabel.getFont());
+        c.gridx = 1;
+        c.gridy = 3;
+        c.weightx = 0.0;
+        c.gridwidth = 2;
+        fieldPanel.add(testcaseIndexButton, c);
+
         JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.TRAILING, inset, inset));
         buttonPanel.setPreferredSize(new Dimension(400, 24 + 2 * inset));
         pane.add(buttonPanel);
@@ -366,6 +505,7 @@ public class VimCoder
                 prefs.setProperty(VIMCOMMAND, vimCommandField.getText());
                 prefs.setProperty(ROOTDIR, rootDirField.getText());
                 prefs.setProperty(CONTESTDIRNAMES, String.valueOf(contestDirNamesButton.isSelected()));
+                prefs.setProperty(TESTCASEINDEX, String.valueOf(testcaseIndexButton.isSelected()));
                 JOptionPane.showMessageDialog(null, "Preferences were saved successfully.");
             }
         });
@@ -392,31 +532,52 @@ public class VimCoder
 
         String cn  = prefs.getProperty(CONTESTDIRNAMES);
         if (cn != null) contestDirNames = Boolean.parseBoolean(cn);
+
+        String ti  = prefs.getProperty(TESTCASEINDEX);
+        if (ti != null) testcaseIndex = Boolean.parseBoolean(ti);
     }
 
 
     /**
-     * A generic logging function, appends text to the text area.  A timestamp
-     * is also prepended to the next text.
+     * A generic logging function, appends text to the text area and the log
+     * file in the storage directory.  A timestamp is also prepended to the
+     * next text.  Messages are queued and appended in batches.
      * @param what The text to append.
      */
-    private void log(final String what)
+    private void log(String what)
     {
-        Runnable task = new Runnable()
+        logQueue.add(timeFormat.get().format(new Date()) + ", " + what);
+        if (logScheduled.compareAndSet(false, true)) SwingUtilities.invokeLater(logTask);
+    }
+
+    /**
+     * Append the queued log messages to the text area and the log file, then
+     * drop the oldest lines from the text area if there are too many.
+     * This is run on the event dispatch thread.
+     */
+    private void flushLog()
+    {
+        logScheduled.set(false);
+
+        StringBuilder text = new StringBuilder();
+        String what;
+        while ((what = logQueue.poll()) != null) text.append(what);
+        if (text.length() == 0) return;
+
+        logArea.append(text.toString());
+        logFile.append(text.toString());
+
+        int extraLines = logArea.getLineCount() - 1 - MAX_LOG_LINES;
+        if (0 < extraLines)
         {
-            public void run()
+            try
             {
-                SimpleDateFormat format = new SimpleDateFormat("kk:mm:ss");
-                logArea.append(format.format(new Date()) + ", " + what);
+                logArea.replaceRange("", 0, logArea.getLineStartOffset(extraLines));
+            }
+            catch (BadLocationException exception)
+            {
+                // The line count says this can't happen; intentionally ignoring exception.
             }
-        };
-        if (SwingUtilities.isEventDispatchThread())
-        {
-            task.run();
-        }
-        else
-        {
-            SwingUtilities.invokeLater(task);
         }
     }
 
@@ -435,6 +596,7 @@ public class VimCoder
      */
     private void logError(String what)
     {
+        Metrics.countError();
         log("ERROR: " + what + System.getProperty("line.separator"));
     }
 }
@@ -0,0 +1,38 @@
+#!/usr/bin/env perl
+
+use warnings;
+use strict;
+
+use File::Temp qw(tempdir);
+use Test::More;
+
+# The classes are compiled to the top of the tree by `make all'.
+my $classes = tempdir(CLEANUP => 1);
+system('javac', '-d', $classes, '-classpath', '.', 't/ExpandTemplate.java') == 0
+    or plan skip_all => 'could not compile t/ExpandTemplate.java';
+
+sub expand {
+    my $template = shift;
+    open(my $java, '-|', 'java', '-classpath', "$classes:.", 'ExpandTemplate', $template, @_)
+        or die "could not run java: $!";
+    local $/;
+    my $text = <$java>;
+    close($java);
+    return $text;
+}
+
+my @terms = ('CLASSNAME=Foo', 'METHODNAME=bar');
+
+is(expand('$CLASSNAME$', @terms),                   'Foo',              'term is expanded');
+is(expand('x$CLASSNAME$$METHODNAME$y', @terms),     'xFoobary',         'adjacent terms are expanded');
+is(expand('$NOTATERM$', @terms),                    '$NOTATERM$',       'unknown term is kept');
+is(expand('$CLASSNAME', @terms),                    '$CLASSNAME',       'unclosed term is kept');
+is(expand('$', @terms),                             '$',                'lone dollar sign is kept');
+is(expand('cost: $5 $CLASSNAME$', @terms),          'cost: $5 Foo',     'literal dollar sign before a term');
+is(expand('$FOO$CLASSNAME$', @terms),               '$FOOFoo',          'unknown term closer opens a term');
+is(expand('a$b$CLASSNAME$', @terms),                'a$bFoo',           'literal text closer opens a term');
+is(expand('$$i$CLASSNAME$', @terms),                '$$iFoo',           'doubled dollar sign before a term');
+is(expand('$CLASS NAME$CLASSNAME$', @terms),        '$CLASS NAMEFoo',   'invalid name closer opens a term');
+is(expand('$CLASSNAME$$$METHODNAME$$', @terms),     'Foo$bar$',         'dollar signs between terms are kept');
+
+done_testing;
@@ -0,0 +1,61 @@
+#!/usr/bin/env perl
+
+use warnings;
+use strict;
+
+use File::Temp qw(tempdir);
+use IO::Socket::INET;
+use JSON::PP;
+use Test::More;
+
+# The classes are compiled to the top of the tree by `make all'.
+my $classes = tempdir(CLEANUP => 1);
+system('javac', '-d', $classes, '-classpath', '.', 't/SendCommands.java') == 0
+    or plan skip_all => 'could not compile t/SendCommands.java';
+
+my @commands = (
+    'tab drop Foo.cc',
+    qq{echo "quoted" 'single' back\\slash},
+    "line\nbreak\ttab\r\x01\x1f",
+);
+
+open(my $java, '-|', 'java', '-classpath', "$classes:.", 'SendCommands', @commands)
+    or die "could not run java: $!";
+
+my $connect = <$java>;
+like($connect, qr/ch_open\('127\.0\.0\.1:(\d+)', \{'mode': 'json'\}\)/, 'connect command opens a JSON channel');
+my ($port) = $connect =~ /127\.0\.0\.1:(\d+)/;
+
+# Act as the Vim server on the other end of the channel.
+my $vim = IO::Socket::INET->new(PeerAddr => '127.0.0.1', PeerPort => $port, Proto => 'tcp')
+    or BAIL_OUT("could not connect to the channel: $!");
+my @messages;
+while (my $line = <$vim>) {
+    push @messages, $line;
+}
+close($vim);
+
+my @output = <$java>;
+close($java);
+is($?, 0, 'sender exits cleanly');
+
+is(scalar(@messages), scalar(@commands), 'one message per command');
+for my $i (0 .. $#commands) {
+    like($messages[$i], qr/\n\z/, "message $i ends with a newline");
+    my $message = eval { JSON::PP->new->utf8->decode($messages[$i]) };
+    ok($message, "message $i is valid JSON") or diag($@);
+    is_deeply($message, ['ex', $commands[$i]], "message $i holds the command");
+}
+unlike(join('', @messages), qr/[\x00-\x09\x0b-\x1f]/, 'control characters are escaped');
+
+is_deeply(\@output, [
+    ("sent: true\n") x scalar(@commands),
+    "connected after release: false\n",
+    "sent after release: false\n",
+    "reopened: true\n",
+], 'releasing the last user closes the channel');
+
+ok(!IO::Socket::INET->new(PeerAddr => '127.0.0.1', PeerPort => $port, Proto => 'tcp'),
+   'closed channel refuses connections');
+
+done_testing;
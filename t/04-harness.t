@@ -0,0 +1,138 @@
+#!/usr/bin/env perl
+
+use warnings;
+use strict;
+
+use File::Temp qw(tempdir);
+use Test::More;
+
+system('sh', '-c', 'command -v g++ >/dev/null && command -v make >/dev/null') == 0
+    or plan skip_all => 'g++ and make are needed to build the C++ driver';
+
+# Write the driver, harness, and Makefile for a problem into a new directory,
+# along with the solution and test cases, and return the directory.
+sub write_problem {
+    my ($terms, $solution, $testcases) = @_;
+    my $dir = tempdir(CLEANUP => 1);
+    for my $template (qw(Driver Harness Makefile)) {
+        open(my $file, '<', "src/com/dogcows/resources/C++$template") or die "could not read C++$template: $!";
+        my $text = do { local $/; <$file> };
+        close($file);
+
+        # The C++ templates only use known terms, so this is all the expanding
+        # they need.
+        $text =~ s/\$(\w+)\$/exists $terms->{$1} ? $terms->{$1} : "\$$1\$"/ge;
+        write_file($dir, {Driver => 'driver.cc', Harness => 'harness.hh', Makefile => 'Makefile'}->{$template}, $text);
+    }
+    write_file($dir, "$terms->{CLASSNAME}.cc", $solution);
+    write_file($dir, 'testcases.txt', $testcases);
+    return $dir;
+}
+
+sub write_file {
+    my ($dir, $name, $text) = @_;
+    open(my $fh, '>', "$dir/$name") or die "could not write $name: $!";
+    print $fh $text;
+    close($fh);
+}
+
+# The solution is compiled after the harness, so it must see the standard
+# stream operators for strings, not the ones the driver uses to quote them.
+my $dir = write_problem({
+    CLASSNAME               => 'Echo',
+    METHODNAME              => 'echo',
+    RETURNTYPE              => 'string',
+    METHODPARAMS            => 'string s',
+    METHODPARAMNAMES        => 's',
+    METHODPARAMSTREAMIN     => 's',
+    METHODPARAMSTREAMOUT    => 's',
+    METHODPARAMDECLARES     => "string\ts;\n",
+}, <<'END', qq{"world hello"\n"hello world"\n"b a"\n"a b"\n});
+#include <sstream>
+#include <string>
+using namespace std;
+
+class Echo
+{
+public:
+	string echo(string s)
+	{
+		istringstream in(s);
+		string first, second;
+		in >> first >> second;
+		ostringstream out;
+		out << second << ' ' << first;
+		return out.str();
+	}
+};
+END
+
+my $output = `make -s -C '$dir' test 2>&1`;
+is($?, 0, 'driver builds and the tests pass') or diag($output);
+like($output, qr/^ok 1 - "world hello" must equal "world hello"$/m, 'solution streams strings unquoted');
+like($output, qr/^ok 2 - "b a" must equal "b a"$/m, 'driver quotes the results');
+
+# The reader takes arrays, negative numbers, doubles, and strings, with or
+# without spaces around the elements, and a last case with no newline.
+$dir = write_problem({
+    CLASSNAME               => 'Mix',
+    METHODNAME              => 'mix',
+    RETURNTYPE              => 'vector <int>',
+    METHODPARAMS            => 'vector <int> a, int k, double x, vector <string> words',
+    METHODPARAMNAMES        => 'a, k, x, words',
+    METHODPARAMSTREAMIN     => 'a >> k >> x >> words',
+    METHODPARAMSTREAMOUT    => 'a << ", " << k << ", " << x << ", " << words',
+    METHODPARAMDECLARES     => "vector <int>\ta;\nint\tk;\ndouble\tx;\nvector <string>\twords;\n",
+}, <<'END', <<'END' . qq{{0, 1}\n{}\n0\n0.04\n{""}});
+#include <string>
+#include <vector>
+using namespace std;
+
+class Mix
+{
+public:
+	vector <int> mix(vector <int> a, int k, double x, vector <string> words)
+	{
+		vector <int> result;
+		for (size_t i = 0; i < a.size(); ++i) result.push_back(a[i] * k);
+		result.push_back(int(x * 10));
+		result.push_back(int(words.size()));
+		return result;
+	}
+};
+END
+{-4, -6, 25, 2}
+{2, 3}
+-2
+2.5
+{"a b", "c"}
+
+{25, 0}
+{}
+7
+2.5
+{}
+
+{ -2 , -3 , -15 , 1 }
+{ -2 , -3 }
+1
+-1.5
+{ "x" }
+END
+
+$output = `make -s -C '$dir' test 2>&1`;
+is($?, 0, 'driver reads every format') or diag($output);
+like($output, qr/^# input for test 1: \{2, 3\}, -2, 2\.5, \{"a b", "c"\}$/m, 'vectors and strings are written back');
+like($output, qr/^ok 1 - \{-4, -6, 25, 2\} must equal \{-4, -6, 25, 2\}$/m, 'negative numbers and doubles');
+like($output, qr/^ok 2 - \{25, 0\} must equal \{25, 0\}$/m, 'empty arrays');
+like($output, qr/^ok 3 - \{-2, -3, -15, 1\} must equal \{-2, -3, -15, 1\}$/m, 'padded arrays');
+like($output, qr/^ok 4 - \{0, 1\} must equal \{0, 1\}$/m, 'last case without a newline');
+like($output, qr/^1\.\.4$/m, 'four cases');
+
+# The parallel mode prints the same results in the same order.
+my $serial = join("\n", $output =~ /^((?:not )?ok \d+ .*)$/mg);
+my $parallel = `cd '$dir' && ./driver --jobs 3 2>&1`;
+is($?, 0, 'parallel run passes') or diag($parallel);
+is(join("\n", $parallel =~ /^((?:not )?ok \d+ .*)$/mg), $serial, 'parallel results are in order');
+
+done_testing;
@@ -0,0 +1,29 @@
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.dogcows.Template;
+
+/**
+ * Expand a template given on the command line and print the result, for
+ * the tests.
+ * Usage: java ExpandTemplate TEMPLATE [NAME=VALUE]...
+ * 
+ * Distributable under the terms and conditions of the 2-clause BSD license;
+ * see the file COPYING for a complete text of the license.
+ */
+public class ExpandTemplate
+{
+    public static void main(String[] args)
+    {
+        Map<String,String> terms = new HashMap<String,String>();
+        for (int i = 1; i < args.length; ++i)
+        {
+            int equals = args[i].indexOf('=');
+            terms.put(args[i].substring(0, equals), args[i].substring(equals + 1));
+        }
+        System.out.print(new Template(args[0]).expand(terms));
+    }
+}
+
+// vim:et:ts=8:sts=4:sw=4
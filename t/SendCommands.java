@@ -0,0 +1,39 @@
+
+import com.dogcows.VimChannel;
+
+/**
+ * Open a channel, print the command which connects Vim to it, send the
+ * commands given on the command line once something connects, and close
+ * the channel, for the tests.
+ * Usage: java SendCommands COMMAND...
+ * 
+ * Distributable under the terms and conditions of the 2-clause BSD license;
+ * see the file COPYING for a complete text of the license.
+ */
+public class SendCommands
+{
+    public static void main(String[] args) throws Exception
+    {
+        VimChannel channel = VimChannel.get("VimCoderTest");
+        System.out.println(channel.getConnectCommand());
+        System.out.flush();
+
+        long expire = System.currentTimeMillis() + 10000;
+        while (!channel.isConnected())
+        {
+            if (expire < System.currentTimeMillis()) throw new Exception("Nothing connected.");
+            Thread.sleep(10);
+        }
+        for (String command : args)
+        {
+            System.out.println("sent: " + channel.send(command));
+        }
+
+        channel.release();
+        System.out.println("connected after release: " + channel.isConnected());
+        System.out.println("sent after release: " + channel.send("echo"));
+        System.out.println("reopened: " + (VimChannel.get("VimCoderTest") != channel));
+    }
+}
+
+// vim:et:ts=8:sts=4:sw=4